@@ -0,0 +1,34 @@
+package com.server.telegramservice.configuration;
+
+import com.server.telegramservice.entity.enums.Bot;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Настройки контекста диалога для OpenAI (openai.context.*)
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "openai.context")
+public class ChatContextProperties {
+
+    // Бюджет токенов промпта (system + история + запрос), если бот не указан в budgets
+    private int defaultBudget = 3000;
+
+    // Бюджеты по ботам: MARKETOLOG -> 6000, PHOTO_BOT -> 1500 ...
+    private Map<Bot, Integer> budgets = new EnumMap<>(Bot.class);
+
+    // Сколько последних сообщений истории рассматривается при сборке контекста
+    private int historyMessages = 30;
+
+    // Меньше этого остатка сообщение уже не обрезается, а отбрасывается
+    private int minTruncatedTokens = 32;
+
+    public int budgetFor(Bot bot) {
+        return bot != null ? budgets.getOrDefault(bot, defaultBudget) : defaultBudget;
+    }
+}
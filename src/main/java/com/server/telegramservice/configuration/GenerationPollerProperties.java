@@ -0,0 +1,48 @@
+package com.server.telegramservice.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Настройки общего опросчика статусов задач у провайдеров (generation.poller.*)
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "generation.poller")
+public class GenerationPollerProperties {
+
+    // Как часто планировщик просматривает отслеживаемые задачи
+    private Duration tick = Duration.ofSeconds(1);
+
+    // Границы интервала между опросами одной задачи
+    private Duration minInterval = Duration.ofSeconds(2);
+    private Duration maxInterval = Duration.ofSeconds(30);
+
+    // Во сколько раз растет интервал после каждого опроса без результата
+    private double backoffMultiplier = 1.5;
+
+    // Ожидаемое время генерации по моделям: flux -> 15s, runway -> 90s ...
+    private Duration defaultExpectedLatency = Duration.ofSeconds(30);
+    private Map<String, Duration> expectedLatency = new HashMap<>();
+
+    // Аренда задачи инстансом в Redis: продлевается, пока инстанс жив; задачи с истекшей арендой
+    // подхватывает любой инстанс при очередной сверке (раз в lease-ttl)
+    private Duration leaseTtl = Duration.ofMinutes(1);
+
+    // Лимит запросов статуса в секунду по провайдерам: kieai -> 10, runway -> 5
+    private double defaultMaxQps = 5;
+    private Map<String, Double> maxQps = new HashMap<>();
+
+    public Duration expectedLatencyFor(String model) {
+        return expectedLatency.getOrDefault(model, defaultExpectedLatency);
+    }
+
+    public double maxQpsFor(String provider) {
+        return maxQps.getOrDefault(provider, defaultMaxQps);
+    }
+}
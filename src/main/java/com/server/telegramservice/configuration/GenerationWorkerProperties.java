@@ -0,0 +1,40 @@
+package com.server.telegramservice.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Настройки пула воркеров генерации (generation.worker.*)
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "generation.worker")
+public class GenerationWorkerProperties {
+
+    // Размер пула потоков, выполняющих генерации
+    private int poolSize = 32;
+
+    // Лимит одновременных генераций для модели, если она не указана в maxInFlight
+    private int defaultMaxInFlight = 4;
+
+    // Лимиты одновременных генераций по моделям: flux -> 8, runway -> 4 ...
+    private Map<String, Integer> maxInFlight = new HashMap<>();
+
+    // Сколько записей модели может ждать слот в памяти; дальше partition ставится на паузу
+    private int maxParkedPerModel = 100;
+
+    // PENDING-запросы старше этого заново ставятся в очередь (отложенные записи теряются при рестарте)
+    private Duration parkRecoveryAge = Duration.ofMinutes(10);
+
+    // Дедлайн генерации: дольше задача у провайдера переводится в TIMEOUT
+    private Duration timeout = Duration.ofMinutes(10);
+
+    public int maxInFlightFor(String model) {
+        return maxInFlight.getOrDefault(model, defaultMaxInFlight);
+    }
+}
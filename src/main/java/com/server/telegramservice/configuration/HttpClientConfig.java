@@ -0,0 +1,85 @@
+package com.server.telegramservice.configuration;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * HTTP-клиенты для внешних AI-провайдеров: общий пул соединений и таймауты по провайдерам
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider aiConnectionProvider(
+            @Value("${http.client.max-connections:200}") int maxConnections,
+            @Value("${http.client.pending-acquire-max-count:1000}") int pendingAcquireMaxCount,
+            @Value("${http.client.pending-acquire-timeout:10s}") Duration pendingAcquireTimeout,
+            @Value("${http.client.max-idle-time:30s}") Duration maxIdleTime) {
+        return ConnectionProvider.builder("ai-providers")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .evictInBackground(Duration.ofSeconds(30))
+                .build();
+    }
+
+    @Bean
+    public WebClient kieAiWebClient(WebClient.Builder builder,
+                                    ConnectionProvider aiConnectionProvider,
+                                    @Value("${kieai.api-url}") String baseUrl,
+                                    @Value("${kieai.connect-timeout:5s}") Duration connectTimeout,
+                                    @Value("${kieai.read-timeout:30s}") Duration readTimeout) {
+        return builder.clone()
+                .baseUrl(baseUrl)
+                .clientConnector(connector(aiConnectionProvider, connectTimeout, readTimeout))
+                .build();
+    }
+
+    @Bean
+    public WebClient runwayWebClient(WebClient.Builder builder,
+                                     ConnectionProvider aiConnectionProvider,
+                                     @Value("${runway.api-url}") String baseUrl,
+                                     @Value("${runway.connect-timeout:5s}") Duration connectTimeout,
+                                     @Value("${runway.read-timeout:60s}") Duration readTimeout) {
+        return builder.clone()
+                .baseUrl(baseUrl)
+                .clientConnector(connector(aiConnectionProvider, connectTimeout, readTimeout))
+                .build();
+    }
+
+    /**
+     * Блокирующий клиент на JDK HttpClient: keep-alive пул и таймауты вместо SimpleClientHttpRequestFactory
+     */
+    @Bean
+    public RestTemplate restTemplate(@Value("${http.client.connect-timeout:5s}") Duration connectTimeout,
+                                     @Value("${http.client.read-timeout:60s}") Duration readTimeout) {
+        java.net.http.HttpClient httpClient = java.net.http.HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(java.net.http.HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeout);
+        return new RestTemplate(requestFactory);
+    }
+
+    private ReactorClientHttpConnector connector(ConnectionProvider provider,
+                                                 Duration connectTimeout, Duration readTimeout) {
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(readTimeout)
+                .followRedirect(true)
+                .compress(true);
+        return new ReactorClientHttpConnector(httpClient);
+    }
+}
@@ -1,20 +1,41 @@
 package com.server.telegramservice.configuration;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.server.telegramservice.service.generation.ModelSlotUnavailableException;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.TopicPartition;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerPausingBackOffHandler;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ListenerContainerPauseService;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.backoff.ExponentialBackOff;
+import org.springframework.util.backoff.FixedBackOff;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
 @Configuration
 public class KafkaConfig {
 
+    public static final String GENERATION_LISTENER_FACTORY = "generationListenerContainerFactory";
+    public static final String FILE_DELETE_LISTENER_FACTORY = "fileDeleteListenerContainerFactory";
+
+    private static final String DEAD_LETTER_SUFFIX = ".DLT";
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
@@ -39,6 +60,7 @@ public class KafkaConfig {
                 .build();
     }
 
+    // При изменении числа партиций поправить GenerationResultPermitListener
     @Bean
     public NewTopic generationResultsTopic() {
         return TopicBuilder.name(generationResultsTopic)
@@ -46,4 +68,86 @@ public class KafkaConfig {
                 .replicas(1)
                 .build();
     }
+
+    @Bean
+    public NewTopic generationRequestsDeadLetterTopic() {
+        return TopicBuilder.name(generationRequestsTopic + DEAD_LETTER_SUFFIX)
+                .partitions(1)
+                .replicas(1)
+                .build();
+    }
+
+    /**
+     * Фабрика слушателя generation_requests (GenerationConsumer). Обработчик ошибок не общий бин,
+     * а только ее: он пишет в generation_requests.DLT и ставит на паузу контейнер генераций,
+     * остальные слушатели работают с настройками Spring Boot по умолчанию.
+     */
+    @Bean(GENERATION_LISTENER_FACTORY)
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> generationListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory,
+            KafkaTemplate<String, String> kafkaTemplate,
+            KafkaListenerEndpointRegistry listenerRegistry,
+            @Value("${generation.consumer.retry-interval-ms:5000}") long retryIntervalMs,
+            @Value("${generation.consumer.max-attempts:3}") long maxAttempts) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.setCommonErrorHandler(generationErrorHandler(kafkaTemplate, listenerRegistry, retryIntervalMs, maxAttempts));
+        return factory;
+    }
+
+    /**
+     * Фабрика FileDeleteConsumer: пачка, которую не удалось обработать целиком (S3 недоступен),
+     * повторяется без ограничения с растущей паузой и без DLT - offset не фиксируется, пока
+     * пачка не пройдет, поэтому удаления не теряются
+     */
+    @Bean(FILE_DELETE_LISTENER_FACTORY)
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> fileDeleteListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory,
+            @Value("${file-delete.retry-max-interval:1m}") Duration retryMaxInterval) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+
+        ExponentialBackOff backOff = new ExponentialBackOff(1000, 2.0);
+        backOff.setMaxInterval(retryMaxInterval.toMillis());
+        backOff.setMaxElapsedTime(Long.MAX_VALUE);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(backOff));
+        return factory;
+    }
+
+    /**
+     * Конечное число повторов, затем запись уходит в generation_requests.DLT.
+     * Без ограничения повторяется только запись, модели которой не хватило слота; на время паузы
+     * останавливается лишь ее partition, poll-поток продолжает читать остальные.
+     */
+    private DefaultErrorHandler generationErrorHandler(KafkaTemplate<String, String> kafkaTemplate,
+                                                       KafkaListenerEndpointRegistry listenerRegistry,
+                                                       long retryIntervalMs,
+                                                       long maxAttempts) {
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(kafkaTemplate,
+                (record, e) -> new TopicPartition(generationRequestsTopic + DEAD_LETTER_SUFFIX, -1));
+
+        ThreadPoolTaskScheduler pauseScheduler = new ThreadPoolTaskScheduler();
+        pauseScheduler.setThreadNamePrefix("kafka-pause-");
+        pauseScheduler.initialize();
+
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer,
+                new FixedBackOff(retryIntervalMs, maxAttempts - 1),
+                new ContainerPausingBackOffHandler(new ListenerContainerPauseService(listenerRegistry, pauseScheduler)));
+        errorHandler.setBackOffFunction((record, e) -> isSlotUnavailable(e)
+                ? new FixedBackOff(retryIntervalMs, FixedBackOff.UNLIMITED_ATTEMPTS)
+                : null);
+        errorHandler.addNotRetryableExceptions(JsonProcessingException.class, IllegalArgumentException.class);
+        return errorHandler;
+    }
+
+    private static boolean isSlotUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ModelSlotUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -4,7 +4,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import com.theokanning.openai.service.OpenAiService;
-import org.springframework.web.client.RestTemplate;
 
 @Configuration
 public class OpenAIConfig {
@@ -15,10 +14,5 @@ public class OpenAIConfig {
     public OpenAiService openAiService() {
         return new OpenAiService(apiKey);
     }
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
 
 }
-
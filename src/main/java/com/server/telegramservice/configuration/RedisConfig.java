@@ -1,11 +1,14 @@
 package com.server.telegramservice.configuration;
 
+import com.server.telegramservice.dto.requests.GenerationRequestDTO;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
@@ -40,4 +43,24 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * Сессии генерации и черновики мастера в компактном версионированном Smile вместо JDK-сериализации
+     */
+    @Bean
+    public RedisTemplate<String, GenerationRequestDTO> generationSessionRedisTemplate(
+            RedisConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        RedisTemplate<String, GenerationRequestDTO> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new VersionedSmileCodec<>(GenerationRequestDTO.class, "generation_session", meterRegistry));
+        return template;
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
 }
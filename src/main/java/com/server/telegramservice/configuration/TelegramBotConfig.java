@@ -1,15 +1,22 @@
 package com.server.telegramservice.configuration;
 
+import com.server.telegramservice.telegram_bots.AbstractTelegramBot;
 import com.server.telegramservice.telegram_bots.MarketingBot;
 import com.server.telegramservice.telegram_bots.PhotoBot;
 import com.server.telegramservice.telegram_bots.TargetingBot;
+import com.server.telegramservice.telegram_bots.TelegramWebhookRouter;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.util.List;
+
 @Slf4j
 @Configuration
 public class TelegramBotConfig {
@@ -17,15 +24,33 @@ public class TelegramBotConfig {
     private final TargetingBot targetingBot;
     private final MarketingBot marketingBot;
     private final PhotoBot photoBot;
+    private final TelegramWebhookRouter webhookRouter;
+
+    // polling - long polling из каждого инстанса, webhook - общий HTTP endpoint за балансировщиком
+    @Value("${telegrambots.mode:polling}")
+    private String mode;
+
+    @Value("${telegrambots.webhook.base-url:}")
+    private String webhookBaseUrl;
 
-    public TelegramBotConfig(TargetingBot targetingBot, MarketingBot marketingBot, PhotoBot photoBot) {
+    @Value("${telegrambots.webhook.secret-token:}")
+    private String webhookSecretToken;
+
+    public TelegramBotConfig(TargetingBot targetingBot, MarketingBot marketingBot, PhotoBot photoBot,
+                             TelegramWebhookRouter webhookRouter) {
         this.targetingBot = targetingBot;
         this.marketingBot = marketingBot;
         this.photoBot = photoBot;
+        this.webhookRouter = webhookRouter;
     }
 
     @PostConstruct
     public void registerBot() {
+        if ("webhook".equalsIgnoreCase(mode)) {
+            registerWebhooks();
+            return;
+        }
+
         try {
             TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
             botsApi.registerBot(targetingBot);
@@ -37,4 +62,27 @@ public class TelegramBotConfig {
             log.error("❌ Ошибка регистрации бота: " + e.getMessage());
         }
     }
+
+    /**
+     * Регистрирует вебхук каждого бота на общий endpoint TelegramWebhookController
+     */
+    private void registerWebhooks() {
+        if (!StringUtils.hasText(webhookBaseUrl)) {
+            throw new IllegalStateException("telegrambots.webhook.base-url обязателен в режиме webhook");
+        }
+
+        for (AbstractTelegramBot bot : List.of(targetingBot, marketingBot, photoBot)) {
+            String url = webhookBaseUrl + "/api/telegram/webhook/" + webhookRouter.pathFor(bot);
+            try {
+                SetWebhook.SetWebhookBuilder setWebhook = SetWebhook.builder().url(url);
+                if (StringUtils.hasText(webhookSecretToken)) {
+                    setWebhook.secretToken(webhookSecretToken);
+                }
+                bot.execute(setWebhook.build());
+                log.info("✅ [{}] Вебхук зарегистрирован", bot.getBotUsername());
+            } catch (TelegramApiException e) {
+                log.error("❌ [{}] Ошибка регистрации вебхука: {}", bot.getBotUsername(), e.getMessage(), e);
+            }
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package com.server.telegramservice.configuration;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бинарный формат значений в Redis: байт версии формата + Smile (бинарный JSON) без заголовка.
+ * Поля читаются по имени, неизвестные пропускаются, поэтому добавление полей в DTO не ломает
+ * чтение старых записей. Значение в другом формате (JDK-сериализация, JSON) читается как
+ * отсутствующее - кэш перечитает источник и перезапишет его.
+ */
+public class VersionedSmileCodec<T> implements RedisSerializer<T> {
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final ObjectMapper SMILE = SmileMapper.builder(SmileFactory.builder()
+                    .disable(SmileGenerator.Feature.WRITE_HEADER)
+                    .disable(SmileParser.Feature.REQUIRE_HEADER)
+                    .build())
+            .addModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private final Class<T> type;
+    private final MeterRegistry meterRegistry;
+    private final String name;
+    private final DistributionSummary encodedSize;
+    private final Timer encodeLatency;
+    private final Timer decodeLatency;
+
+    public VersionedSmileCodec(Class<T> type, String name, MeterRegistry meterRegistry) {
+        this.type = type;
+        this.name = name;
+        this.meterRegistry = meterRegistry;
+        this.encodedSize = DistributionSummary.builder("redis.codec.payload.size")
+                .baseUnit("bytes")
+                .tag("type", name)
+                .register(meterRegistry);
+        this.encodeLatency = meterRegistry.timer("redis.codec.latency", "type", name, "op", "encode");
+        this.decodeLatency = meterRegistry.timer("redis.codec.latency", "type", name, "op", "decode");
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null) {
+            return null;
+        }
+        long startedAt = System.nanoTime();
+        try {
+            byte[] payload = SMILE.writeValueAsBytes(value);
+            byte[] bytes = new byte[payload.length + 1];
+            bytes[0] = FORMAT_VERSION;
+            System.arraycopy(payload, 0, bytes, 1, payload.length);
+            encodedSize.record(bytes.length);
+            return bytes;
+        } catch (Exception e) {
+            throw new SerializationException("Не удалось записать " + name + " в Smile", e);
+        } finally {
+            encodeLatency.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != FORMAT_VERSION) {
+            meterRegistry.counter("redis.codec.rejected", "type", name).increment();
+            return null;
+        }
+        long startedAt = System.nanoTime();
+        try {
+            return SMILE.readValue(bytes, 1, bytes.length - 1, type);
+        } catch (Exception e) {
+            throw new SerializationException("Не удалось прочитать " + name + " из Smile", e);
+        } finally {
+            decodeLatency.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return type;
+    }
+}
@@ -1,18 +1,54 @@
 package com.server.telegramservice.controller;
 
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import com.server.telegramservice.service.generation.GenerationCompletionService;
+import com.server.telegramservice.service.generation.GenerationProviderGateway;
+import com.server.telegramservice.service.generation.ProviderTaskState;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Map;
 
+@Slf4j
 @RestController
+@RequiredArgsConstructor
 public class AiCallbackController {
+
+    private final GenerationProviderGateway providerGateway;
+    private final GenerationCompletionService completionService;
+
+    /**
+     * Вебхук Kie.ai о завершении задачи. Отвечаем 200 сразу,
+     * повторные уведомления по уже завершенной генерации игнорируются.
+     */
     @PostMapping("/api/kie/callback")
-    public ResponseEntity<Void> callback(@RequestBody Map<String, Object> payload) {
-        // Обработай payload: получи id, status, output
+    public ResponseEntity<Void> callback(@RequestParam(required = false) String operationId,
+                                         @RequestParam(required = false) String token,
+                                         @RequestBody Map<String, Object> payload) {
+        if (!providerGateway.isValidCallbackToken(token)) {
+            log.warn("🚫 [{}] Вебхук с неверным токеном отклонен", operationId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        String taskId = providerGateway.extractKieTaskId(payload);
+        ProviderTaskState state = providerGateway.fromKieCallback(payload);
+        log.info("📬 [{}] Вебхук Kie.ai: задача {}, статус {}", operationId, taskId, state.getStatus());
+
+        if (state.getStatus() == GenerationStatus.RUNNING) {
+            return ResponseEntity.ok().build();
+        }
+
+        try {
+            completionService.complete(operationId, taskId, state);
+        } catch (Exception e) {
+            log.error("❌ [{}] Ошибка обработки вебхука: {}", operationId, e.getMessage(), e);
+        }
         return ResponseEntity.ok().build();
     }
 }
-
@@ -0,0 +1,53 @@
+package com.server.telegramservice.controller;
+
+import com.server.telegramservice.telegram_bots.AbstractTelegramBot;
+import com.server.telegramservice.telegram_bots.TelegramWebhookRouter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.Optional;
+
+/**
+ * Общая точка входа вебхуков всех ботов (telegrambots.mode=webhook).
+ * Update сразу уходит в диспетчер бота, Telegram получает 200 без ожидания обработки.
+ */
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "telegrambots.mode", havingValue = "webhook")
+public class TelegramWebhookController {
+
+    private final TelegramWebhookRouter webhookRouter;
+
+    @Value("${telegrambots.webhook.secret-token:}")
+    private String secretToken;
+
+    @PostMapping("/api/telegram/webhook/{botPath}")
+    public ResponseEntity<Void> onUpdate(@PathVariable String botPath,
+                                         @RequestHeader(value = "X-Telegram-Bot-Api-Secret-Token", required = false) String token,
+                                         @RequestBody Update update) {
+        if (StringUtils.hasText(secretToken) && !secretToken.equals(token)) {
+            log.warn("🚫 Вебхук Telegram с неверным секретом отклонен");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        Optional<AbstractTelegramBot> bot = webhookRouter.find(botPath);
+        if (bot.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        bot.get().onUpdateReceived(update);
+        return ResponseEntity.ok().build();
+    }
+}
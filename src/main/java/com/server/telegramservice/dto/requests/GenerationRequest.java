@@ -14,7 +14,8 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "generation_requests")
+@Table(name = "generation_requests",
+        indexes = @Index(name = "idx_generation_requests_provider_task_id", columnList = "provider_task_id"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -54,6 +55,10 @@ public class GenerationRequest {
     @Column(name = "model", nullable = false)
     private String model;
 
+    // taskId задачи у провайдера (Kie.ai, Runway)
+    @Column(name = "provider_task_id")
+    private String providerTaskId;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false)
     private GenerationStatus status = GenerationStatus.PENDING;
@@ -25,6 +25,8 @@ public class GenerationRequestDTO {
     private String style;
     private String aspectRatio;
     private Bot bot;
+    private String model;
+    private String sourceImageUrl;
     private GenerationStatus status = GenerationStatus.CREATED;
     private String resultUrl;
     private String s3Url;
@@ -1,4 +1,15 @@
 package com.server.telegramservice.dto.responses.KieAi;
 
+import lombok.Data;
+
+@Data
 public class KieAiImageToImageResponse {
+    private Integer code;
+    private String msg;
+    private TaskData data;
+
+    @Data
+    public static class TaskData {
+        private String taskId;
+    }
 }
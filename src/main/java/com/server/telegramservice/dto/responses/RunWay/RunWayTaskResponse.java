@@ -1,4 +1,16 @@
 package com.server.telegramservice.dto.responses.RunWay;
 
+import lombok.Data;
+
+import java.util.List;
+
+@Data
 public class RunWayTaskResponse {
+    private String id;
+    private String status; // PENDING, THROTTLED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    private List<String> output;
+    private Double progress;
+    private String failure;
+    private String failureCode;
+    private String createdAt;
 }
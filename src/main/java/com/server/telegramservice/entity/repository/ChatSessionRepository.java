@@ -3,11 +3,23 @@ package com.server.telegramservice.entity.repository;
 import com.server.telegramservice.entity.telegram.ChatSession;
 import com.server.telegramservice.entity.telegram.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 @Repository
 public interface ChatSessionRepository extends JpaRepository<ChatSession, Long> {
     Optional<ChatSession> findTopByUserAndEndedAtIsNullOrderByStartedAtDesc(User user);
-   }
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ChatSession s SET s.summary = :summary, s.summarizedUntil = :summarizedUntil WHERE s.id = :id")
+    int updateSummary(@Param("id") Long id,
+                      @Param("summary") String summary,
+                      @Param("summarizedUntil") LocalDateTime summarizedUntil);
+}
@@ -1,9 +1,28 @@
 package com.server.telegramservice.entity.repository;
 
+import com.server.telegramservice.entity.enums.Bot;
 import com.server.telegramservice.entity.telegram.File;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 
 @Repository
 public interface FileRepository extends JpaRepository<File, Long> {
-}
\ No newline at end of file
+
+    @Query("SELECT f.telegramFileId FROM File f WHERE f.s3Url = :s3Url AND f.telegramFileId IS NOT NULL " +
+            "AND f.message.botType = :botType")
+    List<String> findTelegramFileIds(@Param("s3Url") String s3Url, @Param("botType") Bot botType);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE File f SET f.telegramFileId = :fileId WHERE f.s3Url = :s3Url " +
+            "AND f.message.id IN (SELECT m.id FROM Message m WHERE m.botType = :botType)")
+    int updateTelegramFileId(@Param("s3Url") String s3Url,
+                             @Param("botType") Bot botType,
+                             @Param("fileId") String fileId);
+}
@@ -7,9 +7,11 @@ import com.server.telegramservice.entity.telegram.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.Collection;
@@ -21,10 +23,34 @@ public interface GenerationRequestRepository extends JpaRepository<GenerationReq
 
     Optional<GenerationRequest> findByOperationId(String operationId);
 
+    // Сессия нужна завершению генерации: результат записывается в историю чата
+    @Query("SELECT gr FROM GenerationRequest gr JOIN FETCH gr.user JOIN FETCH gr.session WHERE gr.operationId = :operationId")
+    Optional<GenerationRequest> findWithUserByOperationId(@Param("operationId") String operationId);
+
+    @Query("SELECT gr FROM GenerationRequest gr JOIN FETCH gr.user JOIN FETCH gr.session WHERE gr.providerTaskId = :taskId")
+    Optional<GenerationRequest> findWithUserByProviderTaskId(@Param("taskId") String taskId);
+
+    /**
+     * Атомарный переход статуса: вернет 0, если запрос уже не в одном из expectedStatuses
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationRequest gr SET gr.status = :status WHERE gr.id = :id AND gr.status IN :expectedStatuses")
+    int transitionStatus(@Param("id") Long id,
+                         @Param("status") GenerationStatus status,
+                         @Param("expectedStatuses") Collection<GenerationStatus> expectedStatuses);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationRequest gr SET gr.providerTaskId = :taskId WHERE gr.id = :id")
+    int updateProviderTaskId(@Param("id") Long id, @Param("taskId") String taskId);
+
     List<GenerationRequest> findByUserOrderByCreatedAtDesc(User user);
 
     Page<GenerationRequest> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
 
+    List<GenerationRequest> findByStatusAndProviderTaskIdIsNotNull(GenerationStatus status);
+
     List<GenerationRequest> findByStatusAndCreatedAtBefore(GenerationStatus status, LocalDateTime before);
 
     @Query("SELECT gr FROM GenerationRequest gr WHERE gr.user = :user AND gr.status = :status ORDER BY gr.createdAt DESC")
@@ -41,6 +67,13 @@ public interface GenerationRequestRepository extends JpaRepository<GenerationReq
     @Query("SELECT gr.model, COUNT(gr) as count FROM GenerationRequest gr WHERE gr.status = 'COMPLETED' AND gr.createdAt >= :since GROUP BY gr.model ORDER BY count DESC")
     List<Object[]> getPopularModelsSince(@Param("since") LocalDateTime since);
 
+    /**
+     * Какие из operationIds уже в одном из statuses (сверка аренд генерации)
+     */
+    @Query("SELECT gr.operationId FROM GenerationRequest gr WHERE gr.operationId IN :operationIds AND gr.status IN :statuses")
+    List<String> findOperationIdsInStatus(@Param("operationIds") Collection<String> operationIds,
+                                          @Param("statuses") Collection<GenerationStatus> statuses);
+
     Optional<GenerationRequest> findTopByUserTelegramIdAndStatusNotInOrderByCreatedAtDesc(
             Long userTelegramId,
             Collection<GenerationStatus> completedStatuses
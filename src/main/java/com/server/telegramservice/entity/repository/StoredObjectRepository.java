@@ -0,0 +1,66 @@
+package com.server.telegramservice.entity.repository;
+
+import com.server.telegramservice.entity.storage.StoredObject;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface StoredObjectRepository extends JpaRepository<StoredObject, String> {
+
+    /**
+     * Берет ссылку на уже загруженное содержимое; null - такого содержимого еще нет
+     */
+    @Transactional
+    @Query(value = "UPDATE stored_objects SET ref_count = ref_count + 1 WHERE sha256 = :sha256 RETURNING s3_key",
+            nativeQuery = true)
+    String acquire(@Param("sha256") String sha256);
+
+    /**
+     * Регистрирует загруженный объект; если то же содержимое параллельно загрузил кто-то другой,
+     * берет ссылку на его ключ и возвращает его
+     */
+    @Transactional
+    @Query(value = "INSERT INTO stored_objects (sha256, s3_key, size, content_type, ref_count, created_at) " +
+            "VALUES (:sha256, :s3Key, :size, :contentType, 1, now()) " +
+            "ON CONFLICT (sha256) DO UPDATE SET ref_count = stored_objects.ref_count + 1 RETURNING s3_key",
+            nativeQuery = true)
+    String register(@Param("sha256") String sha256,
+                    @Param("s3Key") String s3Key,
+                    @Param("size") long size,
+                    @Param("contentType") String contentType);
+
+    /**
+     * Снимает ссылку с ключа один раз на событие удаления; null - событие уже учтено
+     * или ключ не в индексе дедупликации
+     */
+    @Transactional
+    @Query(value = "WITH marked AS (" +
+            "INSERT INTO stored_object_releases (event_id, s3_key, released_at) VALUES (:eventId, :s3Key, now()) " +
+            "ON CONFLICT (event_id) DO NOTHING RETURNING s3_key) " +
+            "UPDATE stored_objects SET ref_count = ref_count - 1 " +
+            "WHERE s3_key IN (SELECT s3_key FROM marked) RETURNING ref_count",
+            nativeQuery = true)
+    Integer releaseOnce(@Param("eventId") String eventId, @Param("s3Key") String s3Key);
+
+    @Query("SELECT o.refCount FROM StoredObject o WHERE o.s3Key = :s3Key")
+    Integer findRefCount(@Param("s3Key") String s3Key);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM stored_objects WHERE s3_key = :s3Key AND ref_count <= 0", nativeQuery = true)
+    int deleteUnreferenced(@Param("s3Key") String s3Key);
+
+    /**
+     * Забывает события удаления старше срока, после которого Kafka их уже не передоставит
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM stored_object_releases WHERE released_at < :before", nativeQuery = true)
+    int deleteReleasesBefore(@Param("before") LocalDateTime before);
+}
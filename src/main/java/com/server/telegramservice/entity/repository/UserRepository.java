@@ -2,12 +2,29 @@ package com.server.telegramservice.entity.repository;
 
 import com.server.telegramservice.entity.telegram.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByTelegramId(Long telegramId);
-}
 
+    /**
+     * Создает пользователя, если его еще нет; параллельная вставка того же telegramId не падает
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO users (telegram_id, username, created_at) VALUES (:telegramId, :username, now()) " +
+            "ON CONFLICT (telegram_id) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("telegramId") Long telegramId, @Param("username") String username);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.username = :username WHERE u.telegramId = :telegramId")
+    int updateUsername(@Param("telegramId") Long telegramId, @Param("username") String username);
+}
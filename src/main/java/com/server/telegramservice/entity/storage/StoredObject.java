@@ -0,0 +1,30 @@
+package com.server.telegramservice.entity.storage;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Объект S3 в режиме дедупликации: один ключ на одинаковое содержимое
+ * и счетчик ссылок, чтобы удалять объект только после последнего удаления
+ */
+@Entity
+@Data
+@Table(name = "stored_objects")
+public class StoredObject {
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(name = "s3_key", nullable = false, unique = true, length = 1024)
+    private String s3Key;
+
+    private Long size;
+    private String contentType;
+
+    @Column(nullable = false)
+    private int refCount;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -0,0 +1,25 @@
+package com.server.telegramservice.entity.storage;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Событие удаления, по которому уже снята ссылка на объект: повторная доставка
+ * того же события не уменьшает счетчик ссылок второй раз
+ */
+@Entity
+@Data
+@Table(name = "stored_object_releases", indexes = @Index(columnList = "released_at"))
+public class StoredObjectRelease {
+    @Id
+    @Column(name = "event_id", length = 255)
+    private String eventId;
+
+    @Column(name = "s3_key", nullable = false, length = 1024)
+    private String s3Key;
+
+    @Column(name = "released_at", nullable = false)
+    private LocalDateTime releasedAt = LocalDateTime.now();
+}
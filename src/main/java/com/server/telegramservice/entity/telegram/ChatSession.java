@@ -24,4 +24,10 @@ public class ChatSession {
 
     private LocalDateTime startedAt = LocalDateTime.now();
     private LocalDateTime endedAt;
+
+    // Краткое содержание сообщений до summarizedUntil включительно (обновляется в фоне)
+    @Column(columnDefinition = "TEXT")
+    private String summary;
+
+    private LocalDateTime summarizedUntil;
 }
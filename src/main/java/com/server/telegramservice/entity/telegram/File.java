@@ -5,15 +5,21 @@ import lombok.Data;
 
 @Entity
 @Data
-@Table(name = "files")
+@Table(name = "files", indexes = @Index(name = "idx_files_s3_url", columnList = "s3_url"))
 public class File {
+    // Sequence вместо IDENTITY: иначе Hibernate не может батчить INSERT.
+    // allocationSize = hibernate.jdbc.batch_size, шаг sequence выравнивает db/sequences.sql
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "files_id_seq")
+    @SequenceGenerator(name = "files_id_seq", sequenceName = "files_id_seq", allocationSize = 50)
     private Long id;
     private String filename;
     private String fileType;
     private String s3Url;
 
+    // file_id, который Telegram вернул при отправке файла ботом message.botType
+    private String telegramFileId;
+
     @ManyToOne
     @JoinColumn(name = "message_id")
     private Message message;
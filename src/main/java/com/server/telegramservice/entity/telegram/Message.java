@@ -15,8 +15,11 @@ import java.time.LocalDateTime;
 @Data
 @Table(name = "messages")
 public class Message {
+    // Sequence вместо IDENTITY: иначе Hibernate не может батчить INSERT.
+    // allocationSize = hibernate.jdbc.batch_size, шаг sequence выравнивает db/sequences.sql
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_id_seq")
+    @SequenceGenerator(name = "messages_id_seq", sequenceName = "messages_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
@@ -1,25 +1,95 @@
 package com.server.telegramservice.kafka;
 
+import com.server.telegramservice.configuration.KafkaConfig;
 import com.server.telegramservice.service.S3Service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Удаляет файлы из S3 пачками: все ключи одного poll уходят одним DeleteObjects.
+ * Ключи, которые S3 не удалил, отправляются в топик повторно с тем же идентификатором события;
+ * offset фиксируется только после того, как пачка обработана целиком. Если упала вся пачка,
+ * ее без ограничения повторяет обработчик ошибок фабрики {@link KafkaConfig#FILE_DELETE_LISTENER_FACTORY}.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class FileDeleteConsumer {
 
     private final S3Service s3Service;
+    private final FileDeleteProducer fileDeleteProducer;
+
+    @Value("${file-delete.max-attempts:5}")
+    private int maxAttempts;
+
+    @KafkaListener(topics = FileDeleteProducer.TOPIC, groupId = "file-delete-group", batch = "true",
+            containerFactory = KafkaConfig.FILE_DELETE_LISTENER_FACTORY,
+            properties = "max.poll.records=${file-delete.batch-size:1000}")
+    public void consume(List<ConsumerRecord<String, String>> records) {
+        // Каждое событие снимает свою ссылку, даже если ключ в пачке повторяется
+        Map<String, String> keysByEvent = new LinkedHashMap<>();
+        Map<String, Integer> attempts = new HashMap<>();
+        for (ConsumerRecord<String, String> record : records) {
+            String eventId = eventIdOf(record);
+            keysByEvent.put(eventId, record.value());
+            attempts.put(eventId, attemptOf(record));
+        }
+
+        // Сбой запроса целиком - исключение, пачка будет прочитана заново без коммита
+        Map<String, String> failures = s3Service.deleteFiles(keysByEvent);
+        log.info("Delete events processed: {}, failed keys: {}", keysByEvent.size(), failures.size());
+
+        List<CompletableFuture<?>> retries = keysByEvent.entrySet().stream()
+                .filter(event -> failures.containsKey(event.getValue()))
+                .filter(event -> {
+                    int attempt = attempts.get(event.getKey());
+                    if (attempt >= maxAttempts) {
+                        log.error("Failed to delete file {} after {} attempts: {}",
+                                event.getValue(), attempt, failures.get(event.getValue()));
+                        return false;
+                    }
+                    return true;
+                })
+                .<CompletableFuture<?>>map(event -> fileDeleteProducer.sendDeleteRetry(
+                        event.getValue(), event.getKey(), attempts.get(event.getKey()) + 1))
+                .toList();
 
-    @KafkaListener(topics = "file-delete-topic", groupId = "file-delete-group")
-    public void consume(String key) {
+        // Повторы должны быть в Kafka до коммита offset, иначе ключи потеряются
+        CompletableFuture.allOf(retries.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * События без заголовка (отправленные до его появления) определяются позицией в топике
+     */
+    private String eventIdOf(ConsumerRecord<String, String> record) {
+        Header header = record.headers().lastHeader(FileDeleteProducer.EVENT_ID_HEADER);
+        if (header != null) {
+            return new String(header.value(), StandardCharsets.UTF_8);
+        }
+        return record.topic() + "-" + record.partition() + "@" + record.offset();
+    }
+
+    private int attemptOf(ConsumerRecord<String, String> record) {
+        Header header = record.headers().lastHeader(FileDeleteProducer.ATTEMPT_HEADER);
+        if (header == null) {
+            return 1;
+        }
         try {
-            s3Service.deleteFile(key);
-            log.info("File deleted from S3: {}", key);
-        } catch (Exception e) {
-            log.error("Failed to delete file {}", key, e);
+            return Integer.parseInt(new String(header.value(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return 1;
         }
     }
 }
@@ -1,16 +1,39 @@
 package com.server.telegramservice.kafka;
 
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
 @Service
 @RequiredArgsConstructor
 public class FileDeleteProducer {
 
+    static final String TOPIC = "file-delete-topic";
+    static final String ATTEMPT_HEADER = "x-delete-attempt";
+    // Идентификатор события удаления: одинаковый у события и всех его повторов
+    static final String EVENT_ID_HEADER = "x-delete-event-id";
+
     private final KafkaTemplate<String, String> kafkaTemplate;
 
     public void sendDeleteEvent(String key) {
-        kafkaTemplate.send("file-delete-topic", key);
+        ProducerRecord<String, String> record = new ProducerRecord<>(TOPIC, key);
+        record.headers().add(EVENT_ID_HEADER, UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        kafkaTemplate.send(record);
+    }
+
+    /**
+     * Повторная попытка удаления ключа, который S3 не удалил в пакете
+     */
+    public CompletableFuture<SendResult<String, String>> sendDeleteRetry(String key, String eventId, int attempt) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(TOPIC, key);
+        record.headers().add(EVENT_ID_HEADER, eventId.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(ATTEMPT_HEADER, String.valueOf(attempt).getBytes(StandardCharsets.UTF_8));
+        return kafkaTemplate.send(record);
     }
 }
@@ -0,0 +1,51 @@
+package com.server.telegramservice.service;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Переиспользуемые буферы частей multipart-загрузки.
+ * Одновременно выдается не больше maxBuffers буферов, поэтому память всех загрузок
+ * ограничена (размер части × maxBuffers), а не размером файлов.
+ * В пуле остаются только буферы до maxPooledSize; увеличенные части очень больших файлов
+ * выделяются на одну загрузку и отдаются GC.
+ */
+class S3PartBufferPool {
+
+    private final Semaphore permits;
+    private final int maxPooledSize;
+    private final ConcurrentLinkedDeque<byte[]> free = new ConcurrentLinkedDeque<>();
+
+    S3PartBufferPool(int maxBuffers, int maxPooledSize) {
+        this.permits = new Semaphore(maxBuffers, true);
+        this.maxPooledSize = maxPooledSize;
+    }
+
+    /**
+     * Буфер не меньше size байт; ждет, пока другой загрузчик вернет свой
+     */
+    byte[] acquire(int size) throws InterruptedException {
+        permits.acquire();
+        if (size > maxPooledSize) {
+            return new byte[size];
+        }
+        Iterator<byte[]> it = free.iterator();
+        while (it.hasNext()) {
+            byte[] buffer = it.next();
+            if (buffer.length >= size && free.removeFirstOccurrence(buffer)) {
+                return buffer;
+            }
+        }
+        // Свободных подходящих нет: меньший буфер отдаем GC, чтобы пул не рос
+        free.pollFirst();
+        return new byte[size];
+    }
+
+    void release(byte[] buffer) {
+        if (buffer.length <= maxPooledSize) {
+            free.offerLast(buffer);
+        }
+        permits.release();
+    }
+}
@@ -1,38 +1,75 @@
 package com.server.telegramservice.service;
 
+import com.server.telegramservice.entity.repository.StoredObjectRepository;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.UploadRequest;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class S3Service {
 
     private S3Client s3Client;
     private ExecutorService executorService;
 
+    private final StoredObjectRepository storedObjectRepository;
+    private final RestTemplate restTemplate;
+
+    // Дедупликация по SHA-256 содержимого: одинаковые данные хранятся одним объектом
+    @Value("${aws.s3.dedup.enabled:false}")
+    private boolean dedupEnabled;
+
+    // Сколько помнить обработанные события удаления (не меньше retention топика удаления)
+    @Value("${aws.s3.dedup.release-retention:7d}")
+    private Duration releaseRetention;
+
     @Value("${aws.s3.bucket}")
     private String bucket;
 
@@ -54,10 +91,54 @@ public class S3Service {
     @Value("${aws.s3.multipart-threshold:104857600}") // 100MB
     private long multipartThreshold;
 
+    @Value("${aws.s3.part-size:5242880}") // 5MB минимум для multipart
+    private int partSize;
+
+    // Сколько буферов частей может быть выдано одновременно на все загрузки
+    @Value("${aws.s3.buffer-pool-size:16}")
+    private int bufferPoolSize;
+
+    // Сколько частей одной загрузки отправляется одновременно
+    @Value("${aws.s3.part-parallelism:4}")
+    private int partParallelism;
+
+    // Потоки отправки частей (общие для всех multipart-загрузок)
+    @Value("${aws.s3.part-upload-threads:16}")
+    private int partUploadThreads;
+
+    @Value("${aws.s3.part-max-attempts:3}")
+    private int partMaxAttempts;
+
+    // sync - uploadFilesAsync на пуле потоков и S3Client, async - S3AsyncClient и transfer manager
+    @Value("${aws.s3.backend:sync}")
+    private String backend;
+
+    // Соединений Netty у асинхронного клиента
+    @Value("${aws.s3.async.max-concurrency:200}")
+    private int asyncMaxConcurrency;
+
+    @Value("${aws.s3.async.max-pending-acquires:10000}")
+    private int asyncMaxPendingAcquires;
+
+    @Value("${aws.s3.async.connection-acquire-timeout:60s}")
+    private Duration asyncAcquireTimeout;
+
+    private S3PartBufferPool bufferPool;
+    private ExecutorService partUploadPool;
+    private S3AsyncClient s3AsyncClient;
+    private S3TransferManager transferManager;
+    private ExecutorService streamReadExecutor;
+    private ScheduledExecutorService releaseCleaner;
+    private boolean asyncBackend;
+
     // Константы для валидации
     private static final Pattern UNSAFE_FILENAME_PATTERN = Pattern.compile("[\\\\/:*?\"<>|\\x00-\\x1f\\x7f]");
     private static final int MAX_FILENAME_LENGTH = 255;
     private static final int MAX_KEY_LENGTH = 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final int MAX_DELETE_BATCH = 1000;
+    private static final long MAX_PART_SIZE = 1024L * 1024 * 1024; // буфер части в памяти - не больше 1GB
+    private static final long PART_RETRY_BACKOFF_MS = 500;
     private static final Set<String> ALLOWED_CONTENT_TYPES = Set.of(
             "image/jpeg", "image/png", "image/gif", "image/webp", "image/svg+xml",
             "video/mp4", "video/avi", "video/mov", "video/webm",
@@ -85,13 +166,22 @@ public class S3Service {
                     .build();
 
             this.executorService = Executors.newFixedThreadPool(10);
+            this.bufferPool = new S3PartBufferPool(bufferPoolSize, partSize);
+            if (dedupEnabled) {
+                this.releaseCleaner = Executors.newSingleThreadScheduledExecutor(
+                        new CustomizableThreadFactory("s3-release-cleaner-"));
+                releaseCleaner.scheduleWithFixedDelay(this::pruneReleases, 1, 6, TimeUnit.HOURS);
+            }
+            this.partUploadPool = Executors.newFixedThreadPool(partUploadThreads,
+                    new CustomizableThreadFactory("s3-part-"));
+            initializeAsyncClient();
 
             // Проверяем подключение
             testConnection();
 
             log.info("✅ S3 client initialized successfully");
-            log.info("📊 Configuration: MaxFileSize={}MB, MultipartThreshold={}MB",
-                    maxFileSize / 1024 / 1024, multipartThreshold / 1024 / 1024);
+            log.info("📊 Configuration: MaxFileSize={}MB, MultipartThreshold={}MB, Backend={}",
+                    maxFileSize / 1024 / 1024, multipartThreshold / 1024 / 1024, backend);
 
         } catch (Exception e) {
             log.error("❌ Failed to initialize S3 client", e);
@@ -99,12 +189,56 @@ public class S3Service {
         }
     }
 
+    private void initializeAsyncClient() {
+        this.asyncBackend = "async".equalsIgnoreCase(backend);
+
+        this.s3AsyncClient = S3AsyncClient.builder()
+                .endpointOverride(java.net.URI.create(baseUrl))
+                .region(Region.of(regionName))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(accessKey, secretKey)
+                ))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(asyncMaxConcurrency)
+                        .maxPendingConnectionAcquires(asyncMaxPendingAcquires)
+                        .connectionAcquisitionTimeout(asyncAcquireTimeout))
+                .multipartEnabled(true)
+                .multipartConfiguration(MultipartConfiguration.builder()
+                        .thresholdInBytes(multipartThreshold)
+                        .minimumPartSizeInBytes((long) partSize)
+                        .build())
+                .build();
+
+        this.transferManager = S3TransferManager.builder()
+                .s3Client(s3AsyncClient)
+                .build();
+
+        // Блокирующее чтение InputStream для AsyncRequestBody - на виртуальных потоках
+        this.streamReadExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("s3-stream-", 0).factory());
+    }
+
     @PreDestroy
     public void cleanup() {
         log.info("🧹 Cleaning up S3 service resources...");
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
         }
+        if (partUploadPool != null && !partUploadPool.isShutdown()) {
+            partUploadPool.shutdown();
+        }
+        if (releaseCleaner != null) {
+            releaseCleaner.shutdownNow();
+        }
+        if (transferManager != null) {
+            transferManager.close();
+        }
+        if (s3AsyncClient != null) {
+            s3AsyncClient.close();
+        }
+        if (streamReadExecutor != null) {
+            streamReadExecutor.shutdown();
+        }
         if (s3Client != null) {
             s3Client.close();
         }
@@ -115,6 +249,14 @@ public class S3Service {
      * Загрузка файла с детальной валидацией и логированием
      */
     public String uploadFile(MultipartFile file, String folder) throws IOException {
+        return uploadStream(file, folder);
+    }
+
+    /**
+     * Потоковая загрузка MultipartFile: содержимое читается из getInputStream() частями,
+     * файл целиком в память не загружается
+     */
+    public String uploadStream(MultipartFile file, String folder) throws IOException {
         String operationId = UUID.randomUUID().toString().substring(0, 8);
         log.info("📤 [{}] Starting file upload - Original: '{}', Size: {}MB, Folder: '{}'",
                 operationId, file.getOriginalFilename(),
@@ -132,15 +274,26 @@ public class S3Service {
             log.debug("📝 [{}] File details - Sanitized: '{}', ContentType: '{}', Key: '{}'",
                     operationId, sanitizedFilename, contentType, key);
 
-            // 3. Выбор стратегии загрузки
+            // 3. Дедупликация: MultipartFile можно прочитать дважды, хэш считаем до передачи
+            String sha256 = null;
+            if (dedupEnabled) {
+                try (InputStream in = file.getInputStream()) {
+                    sha256 = sha256Hex(in);
+                }
+                String existingUrl = findDuplicate(sha256, operationId);
+                if (existingUrl != null) {
+                    return existingUrl;
+                }
+            }
+
+            // 4. Выбор стратегии загрузки
             String fileUrl;
-            if (file.getSize() > multipartThreshold) {
-                log.info("🔄 [{}] Using multipart upload (size > {}MB)",
-                        operationId, multipartThreshold / 1024 / 1024);
-                fileUrl = uploadFileMultipart(file.getBytes(), key, contentType, operationId);
-            } else {
-                log.info("⬆️ [{}] Using standard upload", operationId);
-                fileUrl = uploadFileStandard(file.getBytes(), key, contentType, operationId);
+            try (InputStream in = file.getInputStream()) {
+                fileUrl = uploadFromStream(in, file.getSize(), key, contentType, operationId);
+            }
+
+            if (fileUrl != null && sha256 != null) {
+                fileUrl = registerContent(sha256, key, file.getSize(), contentType, operationId);
             }
 
             if (fileUrl != null) {
@@ -156,6 +309,53 @@ public class S3Service {
         }
     }
 
+    /**
+     * Потоковая загрузка: память ограничена размером части, а не размером данных.
+     * length = -1, если длина заранее неизвестна (загрузка всегда идет multipart).
+     * Поток не закрывается, это делает вызывающий.
+     */
+    public String uploadStream(InputStream in, long length, String folder,
+                               String originalFilename, String contentType) throws IOException {
+        String operationId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("📤 [{}] Starting stream upload - Filename: '{}', Size: {}, ContentType: '{}', Folder: '{}'",
+                operationId, originalFilename,
+                length >= 0 ? String.format("%.2fMB", (double) length / 1024 / 1024) : "unknown",
+                contentType, folder);
+
+        try {
+            validateStreamUploadRequest(in, length, folder, originalFilename, operationId);
+
+            String sanitizedFilename = sanitizeFilename(originalFilename);
+            String validatedContentType = validateContentType(contentType);
+            String key = generateFileKey(folder, sanitizedFilename);
+
+            log.debug("📝 [{}] Prepared - Key: '{}', ContentType: '{}'",
+                    operationId, key, validatedContentType);
+
+            // Поток читается один раз: хэш считается по ходу загрузки, дубликат удаляется после нее
+            MessageDigest digest = dedupEnabled ? newSha256() : null;
+            CountingInputStream counted = digest != null ? new CountingInputStream(new DigestInputStream(in, digest)) : null;
+            String fileUrl = uploadFromStream(counted != null ? counted : in, length, key, validatedContentType,
+                    operationId);
+
+            if (fileUrl != null && digest != null) {
+                fileUrl = registerContent(HexFormat.of().formatHex(digest.digest()), key, counted.getCount(),
+                        validatedContentType, operationId);
+            }
+
+            if (fileUrl != null) {
+                log.info("✅ [{}] Stream uploaded successfully: {}", operationId, fileUrl);
+            }
+
+            return fileUrl;
+
+        } catch (Exception e) {
+            log.error("❌ [{}] Stream upload failed for '{}': {}",
+                    operationId, originalFilename, e.getMessage(), e);
+            throw e;
+        }
+    }
+
     /**
      * Загрузка байтов с детальным логированием
      */
@@ -176,15 +376,28 @@ public class S3Service {
             log.debug("📝 [{}] Prepared - Key: '{}', ContentType: '{}'",
                     operationId, key, validatedContentType);
 
+            String sha256 = dedupEnabled ? sha256Hex(data) : null;
+            if (sha256 != null) {
+                String existingUrl = findDuplicate(sha256, operationId);
+                if (existingUrl != null) {
+                    return existingUrl;
+                }
+            }
+
             String fileUrl;
             if (data.length > multipartThreshold) {
                 log.info("🔄 [{}] Using multipart upload for bytes", operationId);
-                fileUrl = uploadFileMultipart(data, key, validatedContentType, operationId);
+                fileUrl = uploadFileMultipart(new ByteArrayInputStream(data), data.length, key,
+                        validatedContentType, operationId);
             } else {
                 log.info("⬆️ [{}] Using standard upload for bytes", operationId);
                 fileUrl = uploadFileStandard(data, key, validatedContentType, operationId);
             }
 
+            if (fileUrl != null && sha256 != null) {
+                fileUrl = registerContent(sha256, key, data.length, validatedContentType, operationId);
+            }
+
             if (fileUrl != null) {
                 log.info("✅ [{}] Bytes uploaded successfully: {}", operationId, fileUrl);
             }
@@ -198,6 +411,52 @@ public class S3Service {
         }
     }
 
+    /**
+     * Перекладывает файл по URL (результат провайдера генерации) прямо в S3:
+     * тело ответа читается частями и сразу уходит в multipart-загрузку, целиком в памяти не бывает.
+     * Длина, тип и SHA-256 содержимого считаются за тот же проход.
+     */
+    public RelayResult relayFromUrl(String sourceUrl, String folder, String filename, String fallbackContentType) {
+        String operationId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("🔁 [{}] Starting relay to S3 - Source: '{}', Filename: '{}', Folder: '{}'",
+                operationId, sourceUrl, filename, folder);
+
+        try {
+            RelayResult result = restTemplate.execute(URI.create(sourceUrl), HttpMethod.GET, null, response -> {
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    throw new IOException("Source responded with HTTP " + response.getStatusCode().value());
+                }
+
+                long length = response.getHeaders().getContentLength();
+                org.springframework.http.MediaType sourceType = response.getHeaders().getContentType();
+                String contentType = validateContentType(sourceType != null
+                        ? sourceType.getType() + "/" + sourceType.getSubtype()
+                        : fallbackContentType);
+
+                validateStreamUploadRequest(response.getBody(), length, folder, filename, operationId);
+                String key = generateFileKey(folder, sanitizeFilename(filename));
+
+                MessageDigest digest = newSha256();
+                CountingInputStream counted = new CountingInputStream(new DigestInputStream(response.getBody(), digest));
+                String fileUrl = uploadFromStream(counted, length, key, contentType, operationId);
+                String sha256 = HexFormat.of().formatHex(digest.digest());
+
+                if (fileUrl != null && dedupEnabled) {
+                    fileUrl = registerContent(sha256, key, counted.getCount(), contentType, operationId);
+                }
+                return new RelayResult(fileUrl, counted.getCount(), contentType, sha256);
+            });
+
+            log.info("✅ [{}] Relay completed: {} ({} bytes, {}, sha256 {})", operationId,
+                    result.url(), result.contentLength(), result.contentType(), result.sha256());
+            return result;
+
+        } catch (Exception e) {
+            log.error("❌ [{}] Relay from '{}' failed: {}", operationId, sourceUrl, e.getMessage(), e);
+            throw e;
+        }
+    }
+
     /**
      * Множественная загрузка файлов
      */
@@ -251,17 +510,27 @@ public class S3Service {
             final int fileIndex = i;
             final MultipartFile file = files.get(i);
 
-            CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
-                try {
-                    log.debug("🔄 [ASYNC-BATCH-{}] Processing async file {}/{}: '{}'",
-                            batchId, fileIndex + 1, files.size(), file.getOriginalFilename());
-                    return uploadFile(file, folder);
-                } catch (Exception e) {
+            CompletableFuture<String> future;
+            if (asyncBackend) {
+                // Неблокирующий путь: поток не держится на время загрузки
+                future = uploadFileAsync(file, folder).exceptionally(e -> {
                     log.error("❌ [ASYNC-BATCH-{}] Async upload failed for file {}/{}: '{}' - {}",
                             batchId, fileIndex + 1, files.size(), file.getOriginalFilename(), e.getMessage());
                     return null;
-                }
-            }, executorService);
+                });
+            } else {
+                future = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        log.debug("🔄 [ASYNC-BATCH-{}] Processing async file {}/{}: '{}'",
+                                batchId, fileIndex + 1, files.size(), file.getOriginalFilename());
+                        return uploadFile(file, folder);
+                    } catch (Exception e) {
+                        log.error("❌ [ASYNC-BATCH-{}] Async upload failed for file {}/{}: '{}' - {}",
+                                batchId, fileIndex + 1, files.size(), file.getOriginalFilename(), e.getMessage());
+                        return null;
+                    }
+                }, executorService);
+            }
 
             futures.add(future);
         }
@@ -279,6 +548,88 @@ public class S3Service {
                 });
     }
 
+    /**
+     * Неблокирующая загрузка байтов через transfer manager
+     */
+    public CompletableFuture<String> uploadBytesAsync(byte[] data, String folder, String originalFilename,
+                                                      String contentType) {
+        String operationId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("📤 [{}] Starting async bytes upload - Filename: '{}', Size: {}MB, Folder: '{}'",
+                operationId, originalFilename,
+                String.format("%.2f", (double) (data != null ? data.length : 0) / 1024 / 1024), folder);
+
+        try {
+            validateBytesUploadRequest(data, folder, originalFilename, contentType, operationId);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        String key = generateFileKey(folder, sanitizeFilename(originalFilename));
+        return uploadAsync(AsyncRequestBody.fromBytes(data), (long) data.length, key,
+                validateContentType(contentType), operationId);
+    }
+
+    /**
+     * Неблокирующая загрузка из потока; поток читается на отдельном executor'е
+     * и закрывается вызывающим после завершения future. length = -1 - длина неизвестна
+     */
+    public CompletableFuture<String> uploadStreamAsync(InputStream in, long length, String folder,
+                                                       String originalFilename, String contentType) {
+        String operationId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("📤 [{}] Starting async stream upload - Filename: '{}', Size: {}, Folder: '{}'",
+                operationId, originalFilename,
+                length >= 0 ? String.format("%.2fMB", (double) length / 1024 / 1024) : "unknown", folder);
+
+        try {
+            validateStreamUploadRequest(in, length, folder, originalFilename, operationId);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Long contentLength = length >= 0 ? length : null;
+        String key = generateFileKey(folder, sanitizeFilename(originalFilename));
+        return uploadAsync(AsyncRequestBody.fromInputStream(in, contentLength, streamReadExecutor), contentLength,
+                key, validateContentType(contentType), operationId);
+    }
+
+    /**
+     * Неблокирующее удаление; true - объекта больше нет
+     */
+    public CompletableFuture<Boolean> deleteAsync(String key) {
+        String operationId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("🗑️ [{}] Starting async file deletion - Key: '{}'", operationId, key);
+
+        try {
+            validateDeleteRequest(key, operationId);
+            if (!releaseReference(key)) {
+                log.info("🔗 [{}] Object '{}' is still referenced, keeping it", operationId, key);
+                return CompletableFuture.completedFuture(true);
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build();
+
+        return s3AsyncClient.deleteObject(deleteRequest)
+                .thenApply(response -> {
+                    log.info("✅ [{}] File deleted successfully: '{}'", operationId, key);
+                    return true;
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof NoSuchKeyException) {
+                        log.warn("⚠️ [{}] File not found for deletion: '{}'", operationId, key);
+                        return true;
+                    }
+                    log.error("❌ [{}] Async deletion of '{}' failed: {}", operationId, key, cause.getMessage());
+                    return false;
+                });
+    }
+
     /**
      * Удаление файла с детальным логированием
      */
@@ -289,6 +640,11 @@ public class S3Service {
         try {
             validateDeleteRequest(key, operationId);
 
+            if (!releaseReference(key)) {
+                log.info("🔗 [{}] Object '{}' is still referenced, keeping it", operationId, key);
+                return true;
+            }
+
             DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
                     .bucket(bucket)
                     .key(key)
@@ -328,6 +684,52 @@ public class S3Service {
         }
     }
 
+    /**
+     * Пакетное удаление через DeleteObjects (до 1000 ключей на запрос) по событиям eventId -> ключ.
+     * Ссылка дедупликации снимается один раз на событие, поэтому повторная доставка события
+     * не уменьшает счетчик дважды. Возвращает ключи, которые удалить не удалось, с кодом ошибки S3;
+     * сбой запроса целиком пробрасывается вызывающему.
+     */
+    public Map<String, String> deleteFiles(Map<String, String> keysByEvent) {
+        String operationId = UUID.randomUUID().toString().substring(0, 8);
+        // Объекты, на которые еще ссылаются другие загрузки (дедупликация), не удаляем
+        List<String> distinctKeys = keysByEvent.entrySet().stream()
+                .filter(event -> StringUtils.hasText(event.getValue()))
+                .filter(event -> releaseReference(event.getValue(), event.getKey()))
+                .map(Map.Entry::getValue)
+                .distinct()
+                .toList();
+        log.info("🗑️ [{}] Starting batch deletion - Keys: {}", operationId, distinctKeys.size());
+
+        Map<String, String> failures = new LinkedHashMap<>();
+        for (int from = 0; from < distinctKeys.size(); from += MAX_DELETE_BATCH) {
+            List<ObjectIdentifier> objects = distinctKeys.subList(from, Math.min(distinctKeys.size(), from + MAX_DELETE_BATCH))
+                    .stream()
+                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                    .toList();
+
+            DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
+                    .bucket(bucket)
+                    .delete(Delete.builder().objects(objects).quiet(true).build())
+                    .build();
+
+            DeleteObjectsResponse response = s3Client.deleteObjects(deleteRequest);
+            for (S3Error error : response.errors()) {
+                // Объекта уже нет - считаем удаленным
+                if (!"NoSuchKey".equals(error.code())) {
+                    failures.put(error.key(), error.code());
+                }
+            }
+        }
+
+        log.info("✅ [{}] Batch deletion completed - Deleted: {}, Failed: {}",
+                operationId, distinctKeys.size() - failures.size(), failures.size());
+        if (!failures.isEmpty()) {
+            log.warn("⚠️ [{}] Failed keys: {}", operationId, failures);
+        }
+        return failures;
+    }
+
     /**
      * Удаление файла по URL
      */
@@ -447,6 +849,37 @@ public class S3Service {
         log.debug("✅ [{}] Bytes upload request validation passed", operationId);
     }
 
+    private void validateStreamUploadRequest(InputStream in, long length, String folder,
+                                             String filename, String operationId) {
+        List<String> errors = new ArrayList<>();
+
+        if (in == null) {
+            errors.add("Input stream is null");
+        }
+        if (length == 0) {
+            errors.add("Data is empty");
+        } else if (length > maxFileSize) {
+            errors.add(String.format("Data size (%d bytes) exceeds maximum allowed (%d bytes)",
+                    length, maxFileSize));
+        }
+
+        if (!StringUtils.hasText(folder)) {
+            errors.add("Folder is required");
+        }
+
+        if (!StringUtils.hasText(filename)) {
+            errors.add("Filename is required");
+        }
+
+        if (!errors.isEmpty()) {
+            String errorMsg = "Validation failed: " + String.join(", ", errors);
+            log.error("❌ [{}] {}", operationId, errorMsg);
+            throw new IllegalArgumentException(errorMsg);
+        }
+
+        log.debug("✅ [{}] Stream upload request validation passed", operationId);
+    }
+
     private void validateDeleteRequest(String key, String operationId) {
         if (!StringUtils.hasText(key)) {
             String errorMsg = "Key is required for deletion";
@@ -581,6 +1014,11 @@ public class S3Service {
     }
 
     private String uploadFileStandard(byte[] data, String key, String contentType, String operationId) {
+        return uploadFileStandard(RequestBody.fromBytes(data), data.length, key, contentType, operationId);
+    }
+
+    private String uploadFileStandard(RequestBody body, long length, String key, String contentType,
+                                      String operationId) {
         try {
             log.debug("⬆️ [{}] Executing standard upload for key: '{}'", operationId, key);
 
@@ -588,10 +1026,10 @@ public class S3Service {
                     .bucket(bucket)
                     .key(key)
                     .contentType(contentType)
-                    .contentLength((long) data.length)
+                    .contentLength(length)
                     .build();
 
-            PutObjectResponse response = s3Client.putObject(putObjectRequest, RequestBody.fromBytes(data));
+            PutObjectResponse response = s3Client.putObject(putObjectRequest, body);
 
             if (response.sdkHttpResponse().isSuccessful()) {
                 String fileUrl = baseUrl + "/" + bucket + "/" + key;
@@ -624,7 +1062,22 @@ public class S3Service {
         }
     }
 
-    private String uploadFileMultipart(byte[] data, String key, String contentType, String operationId) {
+    /**
+     * Загрузка из потока: до порога - одним PUT, иначе multipart
+     */
+    private String uploadFromStream(InputStream in, long length, String key, String contentType,
+                                    String operationId) throws IOException {
+        if (length >= 0 && length <= multipartThreshold) {
+            log.info("⬆️ [{}] Using standard upload", operationId);
+            return uploadFileStandard(RequestBody.fromInputStream(in, length), length, key, contentType, operationId);
+        }
+        log.info("🔄 [{}] Using multipart upload (size > {}MB or unknown)",
+                operationId, multipartThreshold / 1024 / 1024);
+        return uploadFileMultipart(in, length, key, contentType, operationId);
+    }
+
+    private String uploadFileMultipart(InputStream in, long length, String key, String contentType,
+                                       String operationId) {
         String uploadId = null;
         List<CompletedPart> completedParts = new ArrayList<>();
 
@@ -643,38 +1096,82 @@ public class S3Service {
 
             log.debug("📋 [{}] Multipart upload initiated, uploadId: {}", operationId, uploadId);
 
-            // 2. Разбиваем файл на части и загружаем
-            int partSize = 5 * 1024 * 1024; // 5MB минимум для multipart
+            // 2. Читаем поток частями в буферы из пула, части уходят параллельно
+            int currentPartSize = resolvePartSize(length);
+            log.debug("📐 [{}] Part size: {}MB, parallelism: {}",
+                    operationId, currentPartSize / 1024 / 1024, partParallelism);
+            Semaphore inFlight = new Semaphore(partParallelism);
+            List<CompletableFuture<CompletedPart>> partFutures = new ArrayList<>();
             int partNumber = 1;
-            int offset = 0;
-
-            while (offset < data.length) {
-                int currentPartSize = Math.min(partSize, data.length - offset);
-                byte[] partData = Arrays.copyOfRange(data, offset, offset + currentPartSize);
-
-                log.debug("📦 [{}] Uploading part {}, size: {}MB",
-                        operationId, partNumber, String.format("%.2f", (double) currentPartSize / 1024 / 1024));
-
-                UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
-                        .bucket(bucket)
-                        .key(key)
-                        .uploadId(uploadId)
-                        .partNumber(partNumber)
-                        .contentLength((long) currentPartSize)
-                        .build();
+            long uploaded = 0;
 
-                UploadPartResponse uploadPartResponse = s3Client.uploadPart(uploadPartRequest,
-                        RequestBody.fromBytes(partData));
-
-                CompletedPart completedPart = CompletedPart.builder()
-                        .partNumber(partNumber)
-                        .eTag(uploadPartResponse.eTag())
-                        .build();
+            try {
+                while (true) {
+                    inFlight.acquire();
+                    byte[] buffer;
+                    try {
+                        buffer = bufferPool.acquire(currentPartSize);
+                    } catch (InterruptedException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+
+                    int read;
+                    try {
+                        read = in.readNBytes(buffer, 0, currentPartSize);
+                    } catch (IOException e) {
+                        bufferPool.release(buffer);
+                        inFlight.release();
+                        throw e;
+                    }
+                    if (read == 0 && partNumber > 1) {
+                        bufferPool.release(buffer);
+                        inFlight.release();
+                        break;
+                    }
+                    // Лимит проверяем до отправки части, чтобы не грузить лишнее в S3
+                    if (uploaded + read > maxFileSize) {
+                        bufferPool.release(buffer);
+                        inFlight.release();
+                        throw new IllegalArgumentException(String.format(
+                                "Data size exceeds maximum allowed (%d bytes)", maxFileSize));
+                    }
+
+                    String currentUploadId = uploadId;
+                    int currentPartNumber = partNumber;
+                    partFutures.add(CompletableFuture
+                            .supplyAsync(() -> uploadPartWithRetry(key, currentUploadId, currentPartNumber,
+                                    buffer, read, operationId), partUploadPool)
+                            .whenComplete((part, error) -> {
+                                bufferPool.release(buffer);
+                                inFlight.release();
+                            }));
+
+                    uploaded += read;
+                    partNumber++;
+
+                    if (read < currentPartSize) {
+                        break; // поток закончился
+                    }
+                    if (partNumber > MAX_PARTS) {
+                        throw new IllegalStateException("Multipart upload exceeds " + MAX_PARTS + " parts");
+                    }
+                    // Часть уже упала после всех попыток - дальше поток не читаем
+                    if (partFutures.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                        break;
+                    }
+                }
+            } finally {
+                // Дожидаемся отправленных частей, чтобы не отменить загрузку под ними
+                CompletableFuture.allOf(partFutures.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+            }
 
-                completedParts.add(completedPart);
+            for (CompletableFuture<CompletedPart> future : partFutures) {
+                completedParts.add(future.join());
+            }
 
-                offset += currentPartSize;
-                partNumber++;
+            if (length >= 0 && uploaded != length) {
+                throw new IOException(String.format("Stream ended after %d of %d bytes", uploaded, length));
             }
 
             // 3. Завершаем multipart upload
@@ -699,29 +1196,222 @@ public class S3Service {
             return fileUrl;
 
         } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             // В случае ошибки - отменяем multipart upload
-            if (uploadId != null) {
+            abortMultipartUpload(key, uploadId, operationId, e);
+
+            log.error("❌ [{}] Multipart upload failed: {}", operationId, e.getMessage(), e);
+            throw new RuntimeException("Multipart upload failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Размер части: не меньше aws.s3.part-size и такой, чтобы файл уложился в 10 000 частей
+     */
+    private int resolvePartSize(long length) {
+        long expected = length >= 0 ? length : maxFileSize;
+        long required = (expected + MAX_PARTS - 1) / MAX_PARTS;
+        long size = Math.max(partSize, required);
+        long mb = 1024 * 1024;
+        return (int) Math.min(MAX_PART_SIZE, (size + mb - 1) / mb * mb);
+    }
+
+    /**
+     * Загрузка одной части; при ошибке повторяется только она, а не вся загрузка
+     */
+    private CompletedPart uploadPartWithRetry(String key, String uploadId, int partNumber,
+                                              byte[] buffer, int size, String operationId) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                log.debug("📦 [{}] Uploading part {}, size: {}MB, attempt {}",
+                        operationId, partNumber, String.format("%.2f", (double) size / 1024 / 1024), attempt);
+
+                UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) size)
+                        .build();
+
+                // ByteArrayInputStream поверх буфера: без копии части, с mark/reset для ретраев SDK
+                UploadPartResponse response = s3Client.uploadPart(uploadPartRequest,
+                        RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, size), size));
+
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build();
+            } catch (SdkException e) {
+                if (attempt >= partMaxAttempts) {
+                    log.error("❌ [{}] Part {} failed after {} attempts: {}",
+                            operationId, partNumber, attempt, e.getMessage());
+                    throw e;
+                }
+                log.warn("🔁 [{}] Part {} failed (attempt {}/{}), retrying: {}",
+                        operationId, partNumber, attempt, partMaxAttempts, e.getMessage());
                 try {
-                    log.warn("🚫 [{}] Aborting multipart upload due to error: {}", operationId, e.getMessage());
-                    AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest.builder()
-                            .bucket(bucket)
-                            .key(key)
-                            .uploadId(uploadId)
-                            .build();
-                    s3Client.abortMultipartUpload(abortRequest);
-                    log.debug("✅ [{}] Multipart upload aborted", operationId);
-                } catch (Exception abortException) {
-                    log.error("❌ [{}] Failed to abort multipart upload: {}",
-                            operationId, abortException.getMessage());
+                    Thread.sleep(PART_RETRY_BACKOFF_MS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
                 }
             }
+        }
+    }
 
-            log.error("❌ [{}] Multipart upload failed: {}", operationId, e.getMessage(), e);
-            throw new RuntimeException("Multipart upload failed: " + e.getMessage(), e);
+    private CompletableFuture<String> uploadFileAsync(MultipartFile file, String folder) {
+        InputStream in;
+        try {
+            validateUploadRequest(file, folder, "async");
+            in = file.getInputStream();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
         }
+        return uploadStreamAsync(in, file.getSize(), folder, file.getOriginalFilename(), determineContentType(file))
+                .whenComplete((url, error) -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        log.debug("Failed to close upload stream: {}", e.getMessage());
+                    }
+                });
     }
 
-    private String extractKeyFromUrl(String fileUrl) {
+    private CompletableFuture<String> uploadAsync(AsyncRequestBody body, Long contentLength, String key,
+                                                  String contentType, String operationId) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .contentLength(contentLength)
+                .build();
+
+        UploadRequest uploadRequest = UploadRequest.builder()
+                .putObjectRequest(putObjectRequest)
+                .requestBody(body)
+                .build();
+
+        return transferManager.upload(uploadRequest).completionFuture()
+                .thenApply(completed -> {
+                    String fileUrl = baseUrl + "/" + bucket + "/" + key;
+                    log.info("✅ [{}] Async upload completed, ETag: {}", operationId, completed.response().eTag());
+                    return fileUrl;
+                })
+                .whenComplete((url, error) -> {
+                    if (error != null) {
+                        log.error("❌ [{}] Async upload of '{}' failed: {}", operationId, key, error.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * URL уже загруженного объекта с тем же содержимым (ссылка на него учтена) или null
+     */
+    private String findDuplicate(String sha256, String operationId) {
+        String existingKey = storedObjectRepository.acquire(sha256);
+        if (existingKey == null) {
+            return null;
+        }
+        log.info("♻️ [{}] Content already stored as '{}', upload skipped", operationId, existingKey);
+        return baseUrl + "/" + bucket + "/" + existingKey;
+    }
+
+    /**
+     * Записывает загруженный объект в индекс; если то же содержимое успели загрузить
+     * параллельно, наша копия удаляется и возвращается URL существующей
+     */
+    private String registerContent(String sha256, String key, long size, String contentType, String operationId) {
+        String ownerKey = storedObjectRepository.register(sha256, key, size, contentType);
+        if (!key.equals(ownerKey)) {
+            log.info("♻️ [{}] Duplicate of '{}' uploaded concurrently, removing '{}'", operationId, ownerKey, key);
+            s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+        }
+        return baseUrl + "/" + bucket + "/" + ownerKey;
+    }
+
+    /**
+     * Снимает ссылку на объект; true - ссылок не осталось и объект можно удалять из S3
+     */
+    private boolean releaseReference(String key) {
+        return releaseReference(key, UUID.randomUUID().toString());
+    }
+
+    /**
+     * То же для события удаления: повтор события ссылку второй раз не снимает, но
+     * снова разрешает удаление, если после первой попытки ссылок не осталось
+     */
+    private boolean releaseReference(String key, String eventId) {
+        if (!dedupEnabled) {
+            return true;
+        }
+        Integer remaining = storedObjectRepository.releaseOnce(eventId, key);
+        if (remaining == null) {
+            remaining = storedObjectRepository.findRefCount(key);
+            if (remaining == null) {
+                return true; // объект загружен без дедупликации или строка уже удалена
+            }
+        }
+        // Строка удаляется, только если за это время никто не взял новую ссылку
+        return remaining <= 0 && storedObjectRepository.deleteUnreferenced(key) > 0;
+    }
+
+    private void pruneReleases() {
+        try {
+            int pruned = storedObjectRepository.deleteReleasesBefore(LocalDateTime.now().minus(releaseRetention));
+            log.debug("🧹 Pruned {} processed delete events", pruned);
+        } catch (Exception e) {
+            log.warn("⚠️ Failed to prune processed delete events: {}", e.getMessage());
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(newSha256().digest(data));
+    }
+
+    private static String sha256Hex(InputStream in) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            digest.update(chunk, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void abortMultipartUpload(String key, String uploadId, String operationId, Exception cause) {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            log.warn("🚫 [{}] Aborting multipart upload due to error: {}", operationId, cause.getMessage());
+            AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build();
+            s3Client.abortMultipartUpload(abortRequest);
+            log.debug("✅ [{}] Multipart upload aborted", operationId);
+        } catch (Exception abortException) {
+            log.error("❌ [{}] Failed to abort multipart upload: {}",
+                    operationId, abortException.getMessage());
+        }
+    }
+
+    /**
+     * Ключ объекта по URL, который вернули методы загрузки; null - URL не из этого бакета
+     */
+    public String extractKeyFromUrl(String fileUrl) {
         if (!StringUtils.hasText(fileUrl)) {
             return null;
         }
@@ -734,4 +1424,57 @@ public class S3Service {
         log.warn("⚠️ URL doesn't match expected format: '{}'", fileUrl);
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Результат переноса файла по URL в S3
+     */
+    public record RelayResult(String url, long contentLength, String contentType, String sha256) {
+    }
+
+    /**
+     * Считает прочитанные байты: длина потока заранее может быть неизвестна
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // Повторное чтение после reset исказило бы хэш и счетчик
+            return false;
+        }
+    }
+}
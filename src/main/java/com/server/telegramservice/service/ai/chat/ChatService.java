@@ -1,10 +1,30 @@
 package com.server.telegramservice.service.ai.chat;
 
+import com.server.telegramservice.entity.enums.Bot;
 import com.server.telegramservice.entity.telegram.ChatSession;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 
+import java.util.function.Consumer;
+
 
 public interface ChatService {
     public ChatCompletionResult generateResponse(String clientPrompt, String systemContent) ;
-    public ChatCompletionResult generateResponseWithContext(String clientPrompt, String systemContent, ChatSession session);
+
+    /**
+     * Ответ с историей сессии; bot определяет бюджет токенов контекста
+     */
+    public ChatCompletionResult generateResponseWithContext(String clientPrompt, String systemContent, ChatSession session,
+                                                            Bot bot);
+
+    /**
+     * Потоковый вариант generateResponseWithContext: фрагменты ответа передаются в onDelta
+     * по мере генерации, возвращается полный текст
+     */
+    public String streamResponseWithContext(String clientPrompt, String systemContent, ChatSession session, Bot bot,
+                                            Consumer<String> onDelta);
+
+    /**
+     * Один вызов LLM вместо классификации и анализа: намерение, достаточность, стиль и формат
+     */
+    public MediaRoutingResult routeMediaRequest(String clientPrompt, ChatSession session);
 }
@@ -0,0 +1,46 @@
+package com.server.telegramservice.service.ai.chat;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import org.springframework.stereotype.Component;
+
+/**
+ * Локальный подсчет токенов для моделей семейства gpt-4o (кодировка o200k_base)
+ */
+@Component
+public class ChatTokenizer {
+
+    // Служебные токены на каждое сообщение чата и на начало ответа ассистента
+    private static final int TOKENS_PER_MESSAGE = 3;
+    private static final int TOKENS_PER_REPLY = 3;
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.O200K_BASE);
+
+    public int count(String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokens(text);
+    }
+
+    public int count(ChatMessage message) {
+        return TOKENS_PER_MESSAGE + count(message.getContent());
+    }
+
+    public int replyOverhead() {
+        return TOKENS_PER_REPLY;
+    }
+
+    /**
+     * Обрезает текст так, чтобы сообщение с ним занимало не больше maxTokens
+     */
+    public String truncate(String text, int maxTokens) {
+        // один токен оставляем под многоточие
+        int contentTokens = maxTokens - TOKENS_PER_MESSAGE - 1;
+        if (text == null || contentTokens <= 0) {
+            return "";
+        }
+        EncodingResult result = encoding.encode(text, contentTokens);
+        return result.isTruncated() ? encoding.decode(result.getTokens()) + "…" : text;
+    }
+}
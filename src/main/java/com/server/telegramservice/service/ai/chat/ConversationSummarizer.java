@@ -0,0 +1,137 @@
+package com.server.telegramservice.service.ai.chat;
+
+import com.server.telegramservice.entity.enums.Sender;
+import com.server.telegramservice.entity.repository.ChatSessionRepository;
+import com.server.telegramservice.entity.telegram.ChatSession;
+import com.server.telegramservice.entity.telegram.Message;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import com.theokanning.openai.service.OpenAiService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Сворачивает старую часть длинного диалога в краткое содержание сессии.
+ * Работает в фоне: ответ пользователю не ждет вызова LLM для сводки.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationSummarizer {
+
+    private static final String SUMMARY_PROMPT = """
+        Ты ведешь краткий конспект консультации. Тебе дан предыдущий конспект (может быть пустым)
+        и новые сообщения диалога. Верни обновленный конспект на русском языке:
+        факты о пользователе и его бизнесе, цели, принятые решения, цифры, договоренности
+        и открытые вопросы. Без приветствий и пересказа реплик, только суть.
+        """;
+
+    private final OpenAiService openAiService;
+    private final ChatSessionRepository chatSessionRepository;
+
+    @Value("${chat.summary.enabled:true}")
+    private boolean enabled;
+
+    // Сколько несвернутых сообщений накапливается до запуска сводки
+    @Value("${chat.summary.trigger-messages:20}")
+    private int triggerMessages;
+
+    // Сколько последних сообщений остается в контексте как есть
+    @Value("${chat.summary.keep-recent:8}")
+    private int keepRecent;
+
+    @Value("${chat.summary.max-tokens:400}")
+    private int maxTokens;
+
+    private ExecutorService summaryPool;
+
+    // Сессии, для которых сводка уже строится
+    private final Set<Long> inProgress = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void start() {
+        this.summaryPool = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("chat-summarizer-"));
+    }
+
+    /**
+     * Несвернутые сообщения истории (новее summarizedUntil)
+     */
+    public List<Message> unsummarized(ChatSession session, List<Message> history) {
+        LocalDateTime until = session.getSummarizedUntil();
+        if (until == null) {
+            return history;
+        }
+        return history.stream()
+                .filter(message -> message.getCreatedAt() != null && message.getCreatedAt().isAfter(until))
+                .toList();
+    }
+
+    /**
+     * Ставит сводку в фон, если несвернутых сообщений накопилось больше порога
+     */
+    public void scheduleIfNeeded(ChatSession session, List<Message> unsummarized) {
+        if (!enabled || unsummarized.size() < Math.max(triggerMessages, keepRecent + 1)
+                || !inProgress.add(session.getId())) {
+            return;
+        }
+
+        List<Message> toFold = List.copyOf(unsummarized.subList(0, unsummarized.size() - keepRecent));
+        String previousSummary = session.getSummary();
+        try {
+            summaryPool.execute(() -> summarize(session.getId(), previousSummary, toFold));
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(session.getId());
+        }
+    }
+
+    private void summarize(Long sessionId, String previousSummary, List<Message> toFold) {
+        try {
+            StringBuilder dialog = new StringBuilder();
+            for (Message message : toFold) {
+                dialog.append(message.getSender() == Sender.USER ? "Пользователь: " : "Бот: ")
+                        .append(message.getContent())
+                        .append('\n');
+            }
+
+            ChatCompletionRequest request = ChatCompletionRequest.builder()
+                    .model("gpt-4o")
+                    .messages(List.of(
+                            new ChatMessage(ChatMessageRole.SYSTEM.value(), SUMMARY_PROMPT),
+                            new ChatMessage(ChatMessageRole.USER.value(),
+                                    "Предыдущий конспект:\n" + (previousSummary != null ? previousSummary : "-")
+                                            + "\n\nНовые сообщения:\n" + dialog)))
+                    .temperature(0.2)
+                    .maxTokens(maxTokens)
+                    .build();
+
+            String summary = openAiService.createChatCompletion(request).getChoices().get(0).getMessage().getContent();
+            LocalDateTime summarizedUntil = toFold.get(toFold.size() - 1).getCreatedAt();
+            chatSessionRepository.updateSummary(sessionId, summary, summarizedUntil);
+
+            log.info("📝 Сессия {}: свернуто {} сообщений в конспект", sessionId, toFold.size());
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось обновить конспект сессии {}: {}", sessionId, e.getMessage());
+        } finally {
+            inProgress.remove(sessionId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryPool.shutdownNow();
+    }
+}
@@ -0,0 +1,157 @@
+package com.server.telegramservice.service.ai.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Определяет, можно ли ответить PhotoBot-у как в чате, не вызывая маршрутизацию LLM.
+ * Очевидные случаи решают правила, остальные - кэш (Caffeine, затем Redis) ответов "это чат",
+ * которые маршрутизация ChatService дала в той же сессии. Ответ LLM зависит от контекста беседы
+ * ("сделай ярче" после картинки - генерация), поэтому кэш общий только в пределах сессии.
+ */
+@Slf4j
+@Service
+public class MediaIntentClassifier {
+
+    private static final String REDIS_KEY_PREFIX = "photobot:intent:";
+
+    // Явная просьба сгенерировать: глагол генерации или "создай ... картинку/видео".
+    // Фразы, которые только начинаются с "картинка"/"видео" ("видео не грузится"), решает LLM
+    private static final Pattern GENERATION_PATTERN = Pattern.compile(
+            "^(нарисуй|сгенерируй|визуализируй|изобрази|draw|generate|render)\\b.*"
+                    + "|^(создай|сделай|create|make)\\b.*\\b(картин\\w*|изображени\\w*|фото\\w*|видео\\w*|рисун\\w*|арт|image|picture|photo|video)\\b.*",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    // Приветствия, благодарности и вопросы о самом боте
+    private static final Pattern CHAT_PATTERN = Pattern.compile(
+            "^(привет\\w*|здравствуй\\w*|добрый (день|вечер|утро)|hi|hello|hey|спасибо\\w*|благодарю|thanks|thank you"
+                    + "|ок|окей|ok|да|нет|пока)$"
+                    + "|^(что|как|кто|зачем|почему|сколько)\\b.*\\b(ты|тебя|бот\\w*|умеешь|работаешь|стоит)\\b.*",
+            Pattern.UNICODE_CHARACTER_CLASS);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, Boolean> localCache;
+    private final Duration ttl;
+
+    public MediaIntentClassifier(StringRedisTemplate redisTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${photobot.intent-cache.ttl:24h}") Duration ttl,
+                                 @Value("${photobot.intent-cache.max-size:10000}") long maxSize) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.ttl = ttl;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "photobot.intent");
+    }
+
+    /**
+     * true - сообщение точно не запрос генерации; false - нужна маршрутизация LLM
+     * (для генерации она все равно нужна: стиль, формат и достаточность запроса)
+     */
+    public boolean isChat(String text, Long sessionId) {
+        String normalized = normalize(text);
+
+        Optional<Boolean> byRule = preClassify(normalized);
+        if (byRule.isPresent()) {
+            record("rule");
+            return !byRule.get();
+        }
+
+        String key = cacheKey(sessionId, normalized);
+        if (localCache.getIfPresent(key) != null) {
+            record("local");
+            return true;
+        }
+
+        if (readShared(REDIS_KEY_PREFIX + hash(key))) {
+            record("redis");
+            localCache.put(key, Boolean.TRUE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Сохраняет ответ маршрутизации "это чат" для сессии. Ответ "генерация" не кэшируем:
+     * он не избавляет от вызова LLM
+     */
+    public void rememberChat(String text, Long sessionId) {
+        String key = cacheKey(sessionId, normalize(text));
+        localCache.put(key, Boolean.TRUE);
+        writeShared(REDIS_KEY_PREFIX + hash(key));
+    }
+
+    /**
+     * Быстрая классификация без LLM; пусто - случай неоднозначный
+     */
+    Optional<Boolean> preClassify(String normalized) {
+        if (GENERATION_PATTERN.matcher(normalized).matches()) {
+            return Optional.of(true);
+        }
+        if (CHAT_PATTERN.matcher(normalized).matches()) {
+            return Optional.of(false);
+        }
+        return Optional.empty();
+    }
+
+    private boolean readShared(String key) {
+        try {
+            return "1".equals(redisTemplate.opsForValue().get(key));
+        } catch (Exception e) {
+            log.warn("⚠️ Redis недоступен для кэша классификатора: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void writeShared(String key) {
+        try {
+            redisTemplate.opsForValue().set(key, "1", ttl);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось сохранить классификацию в Redis: {}", e.getMessage());
+        }
+    }
+
+    private void record(String source) {
+        meterRegistry.counter("photobot.intent.classifications", "source", source).increment();
+    }
+
+    private static String cacheKey(Long sessionId, String normalized) {
+        return sessionId + ":" + normalized;
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase()
+                .replace('ё', 'е')
+                .replaceAll("[\\p{Punct}«»—–…]+", " ")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    private static String hash(String normalized) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
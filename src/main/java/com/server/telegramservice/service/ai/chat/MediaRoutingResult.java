@@ -0,0 +1,40 @@
+package com.server.telegramservice.service.ai.chat;
+
+import com.server.telegramservice.entity.enums.MediaType;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Результат маршрутизации сообщения PhotoBot одним вызовом LLM:
+ * намерение, достаточность описания и предложенные параметры генерации
+ */
+@Data
+public class MediaRoutingResult {
+
+    public enum Intent {
+        GENERATION,
+        CHAT
+    }
+
+    private Intent intent = Intent.CHAT;
+
+    // Достаточно ли описания, чтобы сразу показать превью генерации
+    private boolean sufficient;
+
+    private MediaType mediaType = MediaType.IMAGE;
+
+    // Код стиля из клавиатуры PhotoBot (realism, anime, ...) или null
+    private String style;
+
+    // 1:1, 16:9 или 9:16; null - формат не понятен из запроса
+    private String aspectRatio;
+
+    // Уточняющие вопросы, если описания недостаточно
+    private List<String> questions = new ArrayList<>();
+
+    public boolean isGeneration() {
+        return intent == Intent.GENERATION;
+    }
+}
@@ -1,10 +1,14 @@
 package com.server.telegramservice.service.ai.chat.impl;
 
+import com.server.telegramservice.entity.enums.Bot;
 import com.server.telegramservice.entity.telegram.ChatSession;
 import com.server.telegramservice.service.ai.chat.ChatService;
+import com.server.telegramservice.service.ai.chat.MediaRoutingResult;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import org.springframework.beans.factory.annotation.Value;
 
+import java.util.function.Consumer;
+
 public class DeepSeekServiceImpl implements ChatService {
     @Value("${deepseek.api-key}")
     private String deepseekApiKey;
@@ -15,7 +19,19 @@ public class DeepSeekServiceImpl implements ChatService {
     }
 
     @Override
-    public ChatCompletionResult generateResponseWithContext(String clientPrompt, String systemContent, ChatSession session) {
+    public ChatCompletionResult generateResponseWithContext(String clientPrompt, String systemContent, ChatSession session,
+                                                            Bot bot) {
+        return null;
+    }
+
+    @Override
+    public String streamResponseWithContext(String clientPrompt, String systemContent, ChatSession session, Bot bot,
+                                            Consumer<String> onDelta) {
+        return null;
+    }
+
+    @Override
+    public MediaRoutingResult routeMediaRequest(String clientPrompt, ChatSession session) {
         return null;
     }
 }
@@ -1,11 +1,21 @@
 package com.server.telegramservice.service.ai.chat.impl;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.server.telegramservice.configuration.ChatContextProperties;
+import com.server.telegramservice.entity.enums.Bot;
+import com.server.telegramservice.entity.enums.MediaType;
 import com.server.telegramservice.service.ai.chat.ChatService;
+import com.server.telegramservice.service.ai.chat.ChatTokenizer;
+import com.server.telegramservice.service.ai.chat.ConversationSummarizer;
+import com.server.telegramservice.service.ai.chat.MediaRoutingResult;
 import com.server.telegramservice.telegram_bots.chat.impl.ChatPersistenceService;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.completion.chat.ChatMessageRole;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -14,8 +24,9 @@ import com.server.telegramservice.entity.telegram.ChatSession;
 import com.server.telegramservice.entity.telegram.Message;
 import com.server.telegramservice.entity.enums.Sender;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service("openAiChatService")
 @RequiredArgsConstructor
@@ -24,6 +35,30 @@ public class OpenAiServiceImpl implements ChatService {
 
     private final com.theokanning.openai.service.OpenAiService openAiService;
     private final ChatPersistenceService chatPersistenceService;
+    private final ObjectMapper objectMapper;
+    private final ChatTokenizer tokenizer;
+    private final ConversationSummarizer summarizer;
+    private final ChatContextProperties contextProperties;
+    private final MeterRegistry meterRegistry;
+
+    private static final String ROUTING_PROMPT = """
+        Ты - маршрутизатор сообщений бота для генерации изображений и видео.
+        Учитывай историю диалога. Ответь ТОЛЬКО JSON-объектом без пояснений:
+        {
+          "intent": "generation" | "chat",
+          "sufficient": true | false,
+          "mediaType": "image" | "video",
+          "style": "realism" | "anime" | "artistic" | "grunge" | "cyberpunk" | "impressionism" | "gothic"
+                   | "pop_art" | "classical" | "abstract" | "surrealism" | "modern" | "sketch" | "vintage" | null,
+          "aspectRatio": "1:1" | "16:9" | "9:16" | null,
+          "questions": ["..."]
+        }
+
+        intent = generation, если пользователь просит создать изображение или видео.
+        sufficient = true, если есть основной объект, стиль или контекст и ключевые детали.
+        style и aspectRatio - только если они следуют из запроса, иначе null.
+        questions - 1-2 уточняющих вопроса (стиль, детали, окружение, цвета), если sufficient = false.
+        """;
 
     @Value("${openai.api-key}")
     private String openAiApi;
@@ -52,26 +87,29 @@ public class OpenAiServiceImpl implements ChatService {
     }
 
     @Override
-    public ChatCompletionResult generateResponseWithContext(String clientPrompt, String systemContent, ChatSession session) {
-        List<ChatMessage> messages = new ArrayList<>();
-
-        messages.add(new ChatMessage(ChatMessageRole.SYSTEM.value(), systemContent));
+    public ChatCompletionResult generateResponseWithContext(String clientPrompt, String systemContent, ChatSession session,
+                                                            Bot bot) {
+        List<ChatMessage> messages = buildContextMessages(clientPrompt, systemContent, session, bot);
 
-        // 2. Add conversation history from session
-        List<Message> conversationHistory = getConversationHistory(session, 8);
+        ChatCompletionRequest request = ChatCompletionRequest.builder()
+                .model("gpt-4o")
+                .messages(messages)
+                .temperature(0.7)
+                .maxTokens(500)
+                .build();
 
-        for (Message msg : conversationHistory) {
-            if (msg.getSender() == Sender.USER) {
-                messages.add(new ChatMessage(ChatMessageRole.USER.value(), msg.getContent()));
-            } else if (msg.getSender() == Sender.BOT) {
-                messages.add(new ChatMessage(ChatMessageRole.ASSISTANT.value(), msg.getContent()));
-            }
+        try {
+            return openAiService.createChatCompletion(request);
+        } catch (Exception e) {
+            log.error("Ошибка обращения к OpenAI с контекстом: " + e.getMessage());
+            throw e;
         }
+    }
 
-
-        messages.add(new ChatMessage(ChatMessageRole.USER.value(), clientPrompt));
-        // лимитируем сессий
-        messages = limitContextWindow(messages, 1000); // Adjust token limit as needed
+    @Override
+    public String streamResponseWithContext(String clientPrompt, String systemContent, ChatSession session, Bot bot,
+                                            Consumer<String> onDelta) {
+        List<ChatMessage> messages = buildContextMessages(clientPrompt, systemContent, session, bot);
 
         ChatCompletionRequest request = ChatCompletionRequest.builder()
                 .model("gpt-4o")
@@ -80,38 +118,182 @@ public class OpenAiServiceImpl implements ChatService {
                 .maxTokens(500)
                 .build();
 
+        StringBuilder answer = new StringBuilder();
         try {
-            return openAiService.createChatCompletion(request);
+            openAiService.streamChatCompletion(request).blockingForEach(chunk -> {
+                if (chunk.getChoices() == null || chunk.getChoices().isEmpty()) {
+                    return;
+                }
+                ChatMessage delta = chunk.getChoices().get(0).getMessage();
+                if (delta != null && delta.getContent() != null) {
+                    answer.append(delta.getContent());
+                    onDelta.accept(delta.getContent());
+                }
+            });
         } catch (Exception e) {
-            log.error("Ошибка обращения к OpenAI с контекстом: " + e.getMessage());
+            log.error("Ошибка потокового обращения к OpenAI: " + e.getMessage());
             throw e;
         }
+        return answer.toString();
     }
 
-    private List<Message> getConversationHistory(ChatSession session, int limit) {
-        List<Message> recent = chatPersistenceService.getLastNMessages(session, limit);
-        // Возвращаем в хронологическом порядке
-        return recent.stream()
-                .sorted(Comparator.comparing(Message::getCreatedAt))
-                .toList();
+    @Override
+    public MediaRoutingResult routeMediaRequest(String clientPrompt, ChatSession session) {
+        List<ChatMessage> messages = buildContextMessages("Запрос: " + clientPrompt, ROUTING_PROMPT, session, Bot.PHOTO_BOT);
+
+        ChatCompletionRequest request = ChatCompletionRequest.builder()
+                .model("gpt-4o")
+                .messages(messages)
+                .temperature(0.0)
+                .maxTokens(300)
+                .build();
+
+        String content;
+        try {
+            content = openAiService.createChatCompletion(request).getChoices().get(0).getMessage().getContent();
+        } catch (Exception e) {
+            log.error("Ошибка обращения к OpenAI при маршрутизации: " + e.getMessage());
+            throw e;
+        }
+        return parseRoutingResult(content);
     }
 
+    private MediaRoutingResult parseRoutingResult(String content) {
+        int start = content != null ? content.indexOf('{') : -1;
+        int end = content != null ? content.lastIndexOf('}') : -1;
+        if (start < 0 || end <= start) {
+            throw new IllegalStateException("Модель вернула ответ без JSON: " + content);
+        }
+
+        try {
+            JsonNode json = objectMapper.readTree(content.substring(start, end + 1));
+            MediaRoutingResult result = new MediaRoutingResult();
+            result.setIntent("generation".equalsIgnoreCase(json.path("intent").asText())
+                    ? MediaRoutingResult.Intent.GENERATION
+                    : MediaRoutingResult.Intent.CHAT);
+            result.setSufficient(json.path("sufficient").asBoolean(false));
+            result.setMediaType("video".equalsIgnoreCase(json.path("mediaType").asText())
+                    ? MediaType.VIDEO
+                    : MediaType.IMAGE);
+            result.setStyle(textOrNull(json.get("style")));
+            result.setAspectRatio(textOrNull(json.get("aspectRatio")));
+            json.path("questions").forEach(question -> result.getQuestions().add(question.asText()));
+            return result;
+        } catch (Exception e) {
+            throw new IllegalStateException("Не удалось разобрать ответ маршрутизации: " + content, e);
+        }
+    }
+
+    private String textOrNull(JsonNode node) {
+        return node == null || node.isNull() || node.asText().isBlank() ? null : node.asText();
+    }
+
+    /**
+     * Контекст в пределах бюджета токенов бота: system и текущий запрос всегда, затем конспект
+     * сессии и несвернутая история от новых сообщений к старым; не влезающее сообщение обрезается.
+     * Запрос пользователя не обрезается короче min-truncated-tokens, вместо него урезается system.
+     */
+    private List<ChatMessage> buildContextMessages(String clientPrompt, String systemContent, ChatSession session, Bot bot) {
+        int budget = contextProperties.budgetFor(bot);
+
+        ChatMessage systemMessage = new ChatMessage(ChatMessageRole.SYSTEM.value(), systemContent);
+        ChatMessage userMessage = new ChatMessage(ChatMessageRole.USER.value(), clientPrompt);
+        int promptTokens = tokenizer.count(userMessage);
+
+        // Запросу пользователя всегда остается не меньше min-truncated-tokens: не влезает - урезаем system
+        int promptFloor = Math.min(promptTokens, contextProperties.getMinTruncatedTokens());
+        int systemLimit = budget - tokenizer.replyOverhead() - promptFloor;
+        if (tokenizer.count(systemMessage) > systemLimit) {
+            log.warn("⚠️ System-промпт бота {} не помещается в бюджет {} токенов и будет обрезан", bot, budget);
+            systemMessage.setContent(tokenizer.truncate(systemContent,
+                    Math.max(systemLimit, contextProperties.getMinTruncatedTokens())));
+        }
+        int used = tokenizer.replyOverhead() + tokenizer.count(systemMessage);
+
+        if (used + promptTokens > budget) {
+            userMessage.setContent(tokenizer.truncate(clientPrompt, Math.max(budget - used, promptFloor)));
+            promptTokens = tokenizer.count(userMessage);
+        }
+        used += promptTokens;
 
-    private List<ChatMessage> limitContextWindow(List<ChatMessage> messages, int maxTokens) {
+        // Старую часть диалога заменяет конспект сессии, в контекст идет только хвост
+        List<Message> conversationHistory = summarizer.unsummarized(session,
+                getConversationHistory(session, contextProperties.getHistoryMessages()));
+        summarizer.scheduleIfNeeded(session, conversationHistory);
 
-        if (messages.size() <= 10) {
-            return messages;
+        ChatMessage summaryMessage = null;
+        if (session.getSummary() != null && !session.getSummary().isBlank()) {
+            summaryMessage = new ChatMessage(ChatMessageRole.SYSTEM.value(),
+                    "Краткое содержание предыдущей части диалога:\n" + session.getSummary());
+            int summaryTokens = tokenizer.count(summaryMessage);
+            int remaining = budget - used;
+            if (summaryTokens > remaining) {
+                // Обрывок короче min-truncated-tokens бесполезен - конспект не отправляем
+                if (remaining >= contextProperties.getMinTruncatedTokens()) {
+                    summaryMessage.setContent(tokenizer.truncate(summaryMessage.getContent(), remaining));
+                    summaryTokens = tokenizer.count(summaryMessage);
+                } else {
+                    summaryMessage = null;
+                    summaryTokens = 0;
+                }
+            }
+            used += summaryTokens;
         }
 
-        List<ChatMessage> limited = new ArrayList<>();
-        limited.add(messages.get(0)); // Always keep system prompt
+        // Идем от новых к старым, пока не кончится бюджет
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = conversationHistory.size() - 1; i >= 0; i--) {
+            ChatMessage historyMessage = toChatMessage(conversationHistory.get(i));
+            if (historyMessage == null) {
+                continue;
+            }
+
+            int remaining = budget - used;
+            int tokens = tokenizer.count(historyMessage);
+            if (tokens > remaining) {
+                if (remaining >= contextProperties.getMinTruncatedTokens()) {
+                    historyMessage.setContent(tokenizer.truncate(historyMessage.getContent(), remaining));
+                    used += tokenizer.count(historyMessage);
+                    history.add(historyMessage);
+                }
+                break;
+            }
+            used += tokens;
+            history.add(historyMessage);
+        }
+        Collections.reverse(history);
 
-        // Keep last 8 messages (4 exchanges) + current
-        int startIndex = Math.max(1, messages.size() - 8);
-        for (int i = startIndex; i < messages.size(); i++) {
-            limited.add(messages.get(i));
+        List<ChatMessage> messages = new ArrayList<>(history.size() + 3);
+        messages.add(systemMessage);
+        if (summaryMessage != null) {
+            messages.add(summaryMessage);
         }
+        messages.addAll(history);
+        messages.add(userMessage);
 
-        return limited;
+        DistributionSummary.builder("openai.prompt.tokens")
+                .baseUnit("tokens")
+                .tag("bot", bot != null ? bot.name() : "none")
+                .register(meterRegistry)
+                .record(used);
+        return messages;
+    }
+
+    private ChatMessage toChatMessage(Message msg) {
+        if (msg.getContent() == null) {
+            return null;
+        }
+        if (msg.getSender() == Sender.USER) {
+            return new ChatMessage(ChatMessageRole.USER.value(), msg.getContent());
+        }
+        if (msg.getSender() == Sender.BOT) {
+            return new ChatMessage(ChatMessageRole.ASSISTANT.value(), msg.getContent());
+        }
+        return null;
+    }
+
+    private List<Message> getConversationHistory(ChatSession session, int limit) {
+        // Буфер истории уже отдает сообщения в хронологическом порядке
+        return chatPersistenceService.getLastNMessages(session, limit);
     }
 }
@@ -2,10 +2,13 @@ package com.server.telegramservice.service.ai.image;
 
 import com.server.telegramservice.dto.requests.KieAi.*;
 import com.server.telegramservice.dto.responses.KieAi.*;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 @Service
 public class KieAiImageService {
@@ -13,11 +16,13 @@ public class KieAiImageService {
     private String apiKey;
 
     private final RestTemplate rt;
+    private final WebClient webClient;
     @Value("${kieai.api-url}")
     private  String baseUrl;
 
-    public KieAiImageService(RestTemplate rt) {
+    public KieAiImageService(RestTemplate rt, @Qualifier("kieAiWebClient") WebClient webClient) {
         this.rt = rt;
+        this.webClient = webClient;
     }
 
     private HttpHeaders headers() {
@@ -53,7 +58,19 @@ public class KieAiImageService {
     public KieAiStableDiffusionResponse generateStableDiffusion(KieAiStableDiffusionRequest req) {
         return post("/api/v1/stable-diffusion/generate", req, KieAiStableDiffusionResponse.class);
     }
-    
+
+    // Неблокирующий опрос статуса поверх WebClient с общим пулом соединений
+
+    public Mono<KieAiImageTaskResponse> getImageTaskAsync(String taskId) {
+        return webClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/api/v1/image/record-info")
+                        .queryParam("task_id", taskId)
+                        .build())
+                .headers(h -> h.setBearerAuth(apiKey))
+                .retrieve()
+                .bodyToMono(KieAiImageTaskResponse.class);
+    }
+
     private <T> T post(String uri, Object req, Class<T> resType) {
         HttpEntity<?> e = new HttpEntity<>(req, headers());
         return rt.postForObject(baseUrl + uri, e, resType);
@@ -64,4 +81,3 @@ public class KieAiImageService {
         return rt.exchange(baseUrl + uri, HttpMethod.GET, e, resType).getBody();
     }
 }
-
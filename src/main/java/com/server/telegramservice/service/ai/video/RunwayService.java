@@ -3,17 +3,25 @@ package com.server.telegramservice.service.ai.video;
 import com.server.telegramservice.dto.requests.Runway.RunwayRequestFromImageToVideo;
 import com.server.telegramservice.dto.requests.Runway.RunwayTextToImageRequest;
 import com.server.telegramservice.dto.responses.RunWay.RunWayTaskResponse;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 @Service
-@RequiredArgsConstructor
 public class RunwayService {
     private final RestTemplate restTemplate;
+    private final WebClient runwayWebClient;
     @Value("${runway.api-key}") private String apiKey;
+    @Value("${runway.api-url}") private String baseUrl;
+
+    public RunwayService(RestTemplate restTemplate, @Qualifier("runwayWebClient") WebClient runwayWebClient) {
+        this.restTemplate = restTemplate;
+        this.runwayWebClient = runwayWebClient;
+    }
 
     private HttpHeaders baseHeaders() {
         HttpHeaders h = new HttpHeaders();
@@ -26,27 +34,36 @@ public class RunwayService {
     public RunWayTaskResponse imageToVideo(RunwayRequestFromImageToVideo req) {
         HttpEntity<RunwayRequestFromImageToVideo> e = new HttpEntity<>(req, baseHeaders());
         return restTemplate
-                .postForObject("https://api.dev.runwayml.com/v1/image_to_video", e, RunWayTaskResponse.class);
+                .postForObject(baseUrl + "/v1/image_to_video", e, RunWayTaskResponse.class);
     }
 
     public RunWayTaskResponse textToImage(RunwayTextToImageRequest req) {
         HttpEntity<RunwayTextToImageRequest> e = new HttpEntity<>(req, baseHeaders());
         return restTemplate
-                .postForObject("https://api.dev.runwayml.com/v1/text_to_image", e, RunWayTaskResponse.class);
+                .postForObject(baseUrl + "/v1/text_to_image", e, RunWayTaskResponse.class);
     }
 
     public RunWayTaskResponse getTask(String id) {
         HttpEntity<Void> e = new HttpEntity<>(baseHeaders());
         return restTemplate
-                .exchange("https://api.dev.runwayml.com/v1/tasks/"+id,
+                .exchange(baseUrl + "/v1/tasks/"+id,
                 HttpMethod.GET, e, RunWayTaskResponse.class).getBody();
     }
 
     public void cancelTask(String id) {
         HttpEntity<Void> e = new HttpEntity<>(baseHeaders());
         restTemplate
-                .exchange("https://api.dev.runwayml.com/v1/tasks/"+id,
+                .exchange(baseUrl + "/v1/tasks/"+id,
                 HttpMethod.DELETE, e, Void.class);
     }
-}
 
+    // Неблокирующий опрос статуса поверх WebClient с общим пулом соединений
+
+    public Mono<RunWayTaskResponse> getTaskAsync(String id) {
+        return runwayWebClient.get()
+                .uri("/v1/tasks/{id}", id)
+                .headers(h -> h.addAll(baseHeaders()))
+                .retrieve()
+                .bodyToMono(RunWayTaskResponse.class);
+    }
+}
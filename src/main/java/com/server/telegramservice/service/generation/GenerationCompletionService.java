@@ -0,0 +1,257 @@
+package com.server.telegramservice.service.generation;
+
+import com.server.telegramservice.dto.requests.GenerationRequest;
+import com.server.telegramservice.entity.enums.Bot;
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import com.server.telegramservice.entity.enums.MediaType;
+import com.server.telegramservice.entity.enums.MessageType;
+import com.server.telegramservice.entity.enums.Sender;
+import com.server.telegramservice.entity.repository.GenerationRequestRepository;
+import com.server.telegramservice.service.S3Service;
+import com.server.telegramservice.service.kafka.GenerationResultProducer;
+import com.server.telegramservice.telegram_bots.PhotoBot;
+import com.server.telegramservice.telegram_bots.chat.impl.ChatPersistenceService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Единый путь завершения генерации: вебхук провайдера, воркер или поллер.
+ * Переход в финальный статус атомарный, поэтому повторные уведомления игнорируются.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class GenerationCompletionService {
+
+    private static final List<GenerationStatus> ACTIVE_STATUSES = List.of(
+            GenerationStatus.CREATED,
+            GenerationStatus.PENDING,
+            GenerationStatus.RUNNING
+    );
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final GenerationRequestRepository generationRequestRepository;
+    private final S3Service s3Service;
+    private final GenerationResultProducer resultProducer;
+    private final GenerationSessionService generationSessionService;
+    private final GenerationConcurrencyLimiter concurrencyLimiter;
+    private final GenerationProviderGateway providerGateway;
+    private final PhotoBot photoBot;
+    private final ChatPersistenceService chatPersistenceService;
+
+    @Value("${generation.completion.pool-size:8}")
+    private int poolSize;
+
+    private ExecutorService completionPool;
+
+    @PostConstruct
+    public void initCompletionPool() {
+        this.completionPool = Executors.newFixedThreadPool(poolSize,
+                new CustomizableThreadFactory("generation-completion-"));
+    }
+
+    @PreDestroy
+    public void shutdownCompletionPool() {
+        completionPool.shutdown();
+        try {
+            if (!completionPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                completionPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            completionPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Завершает генерацию, найденную по operationId или по taskId провайдера.
+     * Возвращает false, если запрос не найден или уже завершен.
+     */
+    public boolean complete(String operationId, String taskId, ProviderTaskState state) {
+        Optional<GenerationRequest> found = operationId != null
+                ? generationRequestRepository.findWithUserByOperationId(operationId)
+                : Optional.empty();
+        if (found.isEmpty() && taskId != null) {
+            found = generationRequestRepository.findWithUserByProviderTaskId(taskId);
+        }
+        if (found.isEmpty()) {
+            log.warn("⚠️ Генерация не найдена: operationId={}, taskId={}", operationId, taskId);
+            return false;
+        }
+
+        GenerationRequest entity = found.get();
+        if (generationRequestRepository.transitionStatus(entity.getId(), state.getStatus(), ACTIVE_STATUSES) == 0) {
+            log.info("↩️ [{}] Генерация уже завершена, повторное уведомление проигнорировано",
+                    entity.getOperationId());
+            return false;
+        }
+
+        entity.setStatus(state.getStatus());
+        if (entity.getProviderTaskId() == null) {
+            entity.setProviderTaskId(taskId);
+        }
+
+        // Загрузка в S3 и доставка в чат не держат поток вебхука / поллера
+        completionPool.execute(() -> finish(entity, state));
+        return true;
+    }
+
+    /**
+     * В FAILED переводит только сбой загрузки результата. Как только финальный статус
+     * записан и опубликован, ошибки доставки в чат его уже не меняют.
+     */
+    private void finish(GenerationRequest entity, ProviderTaskState state) {
+        String operationId = entity.getOperationId();
+
+        try {
+            if (state.getStatus() != GenerationStatus.SUCCEEDED) {
+                fail(entity, state.getStatus(), state.getErrorMessage());
+                return;
+            }
+
+            String s3Url;
+            try {
+                s3Url = uploadResultToS3(state.getResultUrl(), entity);
+            } catch (Exception e) {
+                log.error("❌ [{}] Ошибка при сохранении результата генерации: {}", operationId, e.getMessage(), e);
+                fail(entity, GenerationStatus.FAILED, e.getMessage());
+                return;
+            }
+            succeed(entity, state.getResultUrl(), s3Url);
+
+        } catch (Exception e) {
+            log.error("❌ [{}] Ошибка при завершении генерации: {}", operationId, e.getMessage(), e);
+        } finally {
+            concurrencyLimiter.release(operationId);
+        }
+    }
+
+    private void succeed(GenerationRequest entity, String resultUrl, String s3Url) {
+        String operationId = entity.getOperationId();
+
+        entity.setResultUrl(resultUrl);
+        entity.setS3Url(s3Url);
+        markCompleted(entity);
+
+        resultProducer.sendGenerationResult(operationId, s3Url, GenerationStatus.SUCCEEDED);
+        closeSession(entity, GenerationStatus.SUCCEEDED, s3Url);
+        log.info("✅ [{}] Генерация завершена успешно за {}ms: {}",
+                operationId, entity.getProcessingTimeMs(), s3Url);
+
+        recordResultFile(entity, s3Url);
+        deliver(operationId, () -> photoBot.deliverGenerationResult(entity.getChatId(), entity.getMediaType(), s3Url));
+    }
+
+    /**
+     * Результат попадает в историю чата строкой File: по ней TelegramFileIdCache хранит
+     * file_id доставленного файла дольше, чем живет запись в Redis
+     */
+    private void recordResultFile(GenerationRequest entity, String s3Url) {
+        boolean isImage = entity.getMediaType() != MediaType.VIDEO;
+        try {
+            chatPersistenceService.saveMessageWithFile(entity.getSession(), Sender.BOT,
+                    isImage ? "🖼️ Результат генерации" : "🎬 Результат генерации",
+                    resultFilename(entity), resultContentType(entity), s3Url, Bot.PHOTO_BOT, MessageType.TELEGRAM);
+        } catch (Exception e) {
+            log.warn("⚠️ [{}] Не удалось записать результат в историю чата: {}",
+                    entity.getOperationId(), e.getMessage());
+        }
+    }
+
+    private void fail(GenerationRequest entity, GenerationStatus status, String errorMessage) {
+        String operationId = entity.getOperationId();
+
+        entity.setStatus(status);
+        entity.setErrorMessage(truncate(errorMessage));
+        markCompleted(entity);
+
+        resultProducer.sendGenerationResult(operationId, null, status);
+        closeSession(entity, status, null);
+        log.warn("❌ [{}] Генерация завершилась со статусом {}: {}", operationId, status, errorMessage);
+
+        deliver(operationId, () -> photoBot.notifyGenerationFailed(entity.getChatId(), status));
+    }
+
+    /**
+     * Сбой доставки в чат не меняет сохраненный и опубликованный статус генерации
+     */
+    private void deliver(String operationId, Runnable delivery) {
+        try {
+            delivery.run();
+        } catch (Exception e) {
+            log.error("📭 [{}] Не удалось доставить результат генерации в чат: {}", operationId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Загрузка результата в S3
+     */
+    private String uploadResultToS3(String resultUrl, GenerationRequest entity) throws Exception {
+        String operationId = entity.getOperationId();
+        if (resultUrl == null) {
+            throw new IllegalStateException("API вернул пустой результат");
+        }
+        if (!providerGateway.isAllowedResultUrl(resultUrl)) {
+            log.warn("🚫 [{}] Ссылка на результат не с хоста провайдера: {}", operationId, resultUrl);
+            throw new IllegalStateException("Недопустимый адрес результата");
+        }
+
+        log.debug("📦 [{}] Загружаем в S3: {}", operationId, resultUrl);
+
+        String folder = entity.getMediaType() != MediaType.VIDEO ? "images" : "videos";
+        String filename = resultFilename(entity);
+        String contentType = resultContentType(entity);
+
+        // Ответ провайдера сразу уходит в S3 частями, без byte[] на весь файл
+        S3Service.RelayResult relay = s3Service.relayFromUrl(resultUrl, folder, filename, contentType);
+        if (relay.url() == null) {
+            throw new IllegalStateException("Не удалось загрузить результат в S3");
+        }
+        log.info("✅ [{}] Файл загружен в S3: {} ({} байт, {})",
+                operationId, relay.url(), relay.contentLength(), relay.contentType());
+        return relay.url();
+    }
+
+    private String resultFilename(GenerationRequest entity) {
+        boolean isImage = entity.getMediaType() != MediaType.VIDEO;
+        return String.format("%s_%s%s", entity.getOperationId(), entity.getModel(), isImage ? ".png" : ".mp4");
+    }
+
+    private String resultContentType(GenerationRequest entity) {
+        return entity.getMediaType() != MediaType.VIDEO ? "image/png" : "video/mp4";
+    }
+
+    private void closeSession(GenerationRequest entity, GenerationStatus status, String resultUrl) {
+        generationSessionService.completeGenerationSession(
+                String.valueOf(entity.getUser().getTelegramId()), entity.getOperationId(), status, resultUrl);
+    }
+
+    private void markCompleted(GenerationRequest entity) {
+        LocalDateTime now = LocalDateTime.now();
+        entity.setCompletedAt(now);
+        if (entity.getCreatedAt() != null) {
+            entity.setProcessingTimeMs(Duration.between(entity.getCreatedAt(), now).toMillis());
+        }
+        generationRequestRepository.save(entity);
+    }
+
+    private String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
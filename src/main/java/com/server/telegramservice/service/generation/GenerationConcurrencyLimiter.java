@@ -0,0 +1,68 @@
+package com.server.telegramservice.service.generation;
+
+import com.server.telegramservice.configuration.GenerationWorkerProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Ограничивает число одновременных генераций для каждой модели.
+ * Слот привязан к operationId и освобождается один раз, когда генерация завершилась.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class GenerationConcurrencyLimiter {
+
+    private final GenerationWorkerProperties properties;
+
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    // operationId -> модель, слот которой занят на этом инстансе
+    private final Map<String, String> heldPermits = new ConcurrentHashMap<>();
+
+    // Вызывается с моделью после освобождения ее слота
+    private volatile Consumer<String> releaseListener = model -> { };
+
+    /**
+     * Занимает слот модели для операции без ожидания
+     */
+    public boolean tryAcquire(String operationId, String model) {
+        if (!semaphore(model).tryAcquire()) {
+            log.debug("⏳ Все слоты модели {} заняты ({} из {})",
+                    model, inFlight(model), properties.maxInFlightFor(model));
+            return false;
+        }
+        heldPermits.put(operationId, model);
+        return true;
+    }
+
+    public void onRelease(Consumer<String> listener) {
+        this.releaseListener = listener;
+    }
+
+    /**
+     * Освобождает слот операции; повторный вызов или чужой operationId ничего не делают
+     */
+    public void release(String operationId) {
+        String model = heldPermits.remove(operationId);
+        if (model != null) {
+            semaphore(model).release();
+            log.debug("🔓 [{}] Слот модели {} освобожден", operationId, model);
+            releaseListener.accept(model);
+        }
+    }
+
+    public int inFlight(String model) {
+        return properties.maxInFlightFor(model) - semaphore(model).availablePermits();
+    }
+
+    private Semaphore semaphore(String model) {
+        return permits.computeIfAbsent(model, m -> new Semaphore(properties.maxInFlightFor(m)));
+    }
+}
@@ -0,0 +1,222 @@
+package com.server.telegramservice.service.generation;
+
+import com.server.telegramservice.configuration.GenerationWorkerProperties;
+import com.server.telegramservice.dto.requests.GenerationRequest;
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import com.server.telegramservice.entity.repository.GenerationRequestRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Не больше одной активной генерации на пользователя: аренда в Redis (SET NX) с TTL до дедлайна
+ * генерации. Берется при отправке запроса (не при открытии мастера), атомарна между инстансами,
+ * снимается при завершении генерации; аренды, которые не сняли из-за сбоя, периодически сверяются с БД.
+ */
+@Slf4j
+@Service
+public class GenerationLeaseService {
+
+    private static final String KEY_PREFIX = "generation:lease:";
+
+    static final List<GenerationStatus> COMPLETED_STATUSES = List.of(
+            GenerationStatus.SUCCEEDED,
+            GenerationStatus.FAILED,
+            GenerationStatus.CANCELED,
+            GenerationStatus.TIMEOUT,
+            GenerationStatus.UNKNOWN
+    );
+
+    // Снимаем аренду, только если она все еще принадлежит этой операции
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+    // Продлеваем свою аренду или занимаем заново истекшую; чужую не трогаем
+    private static final RedisScript<Long> EXTEND_SCRIPT = new DefaultRedisScript<>("""
+            local current = redis.call('get', KEYS[1])
+            if current == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end
+            if not current then
+                redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final GenerationRequestRepository generationRequestRepository;
+    private final GenerationWorkerProperties workerProperties;
+    private final MeterRegistry meterRegistry;
+    private final Duration grace;
+    private final Duration reconcileInterval;
+
+    private ScheduledExecutorService reconciler;
+
+    public GenerationLeaseService(StringRedisTemplate redisTemplate,
+                                  GenerationRequestRepository generationRequestRepository,
+                                  GenerationWorkerProperties workerProperties,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${generation.lease.grace:5m}") Duration grace,
+                                  @Value("${generation.lease.reconcile-interval:5m}") Duration reconcileInterval) {
+        this.redisTemplate = redisTemplate;
+        this.generationRequestRepository = generationRequestRepository;
+        this.workerProperties = workerProperties;
+        this.meterRegistry = meterRegistry;
+        this.grace = grace;
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    @PostConstruct
+    public void start() {
+        this.reconciler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("generation-lease-"));
+        long intervalMs = reconcileInterval.toMillis();
+        reconciler.scheduleWithFixedDelay(this::reconcileSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * Атомарно занимает слот пользователя под операцию. Если Redis недоступен -
+     * проверка по БД, как раньше (без защиты от гонки двух одновременных запросов).
+     */
+    public boolean tryAcquire(Long userId, String operationId) {
+        try {
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(key(userId), operationId, leaseTtl());
+            boolean result = Boolean.TRUE.equals(acquired);
+            record(result ? "acquired" : "busy");
+            if (!result) {
+                log.info("🚫 Пользователь {} имеет активный запрос: {}", userId, holder(userId).orElse("?"));
+            }
+            return result;
+        } catch (Exception e) {
+            log.warn("⚠️ Redis недоступен для аренды генерации пользователя {}: {}", userId, e.getMessage());
+            record("fallback");
+            return !hasActiveRequestInDb(userId);
+        }
+    }
+
+    /**
+     * Продлевает аренду: дедлайн генерации отсчитывается от постановки задачи у провайдера.
+     * Истекшую аренду занимает заново; если слот уже у другой операции - это нарушение
+     * "одна генерация на пользователя", о нем пишем в лог и метрику.
+     */
+    public void extend(Long userId, String operationId) {
+        try {
+            Long extended = redisTemplate.execute(EXTEND_SCRIPT, List.of(key(userId)), operationId,
+                    String.valueOf(leaseTtl().toMillis()));
+            if (!Long.valueOf(1).equals(extended)) {
+                meterRegistry.counter("generation.lease.lost").increment();
+                log.error("🚨 Аренда пользователя {} занята другой операцией ({}), генерация [{}] идет без нее",
+                        userId, holder(userId).orElse("?"), operationId);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось продлить аренду генерации [{}]: {}", operationId, e.getMessage());
+        }
+    }
+
+    public void release(Long userId, String operationId) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(key(userId)), operationId);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось снять аренду генерации [{}], снимет сверка или TTL: {}",
+                    operationId, e.getMessage());
+        }
+    }
+
+    /**
+     * Свободен ли слот пользователя. Как и tryAcquire, без Redis проверяет по БД
+     */
+    public boolean isFree(Long userId) {
+        try {
+            return holder(userId).isEmpty();
+        } catch (Exception e) {
+            log.warn("⚠️ Redis недоступен для проверки аренды пользователя {}: {}", userId, e.getMessage());
+            meterRegistry.counter("generation.lease.check", "result", "fallback").increment();
+            return !hasActiveRequestInDb(userId);
+        }
+    }
+
+    public Optional<String> holder(Long userId) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(key(userId)));
+    }
+
+    /**
+     * Снимает аренды операций, которые в БД уже завершены. Аренды еще не отправленных
+     * операций (в БД их нет) не трогаем - они истекут по TTL.
+     */
+    void reconcile() {
+        Map<String, String> leases = new HashMap<>();
+        ScanOptions options = ScanOptions.scanOptions().match(KEY_PREFIX + "*").count(500).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                String operationId = redisTemplate.opsForValue().get(key);
+                if (operationId != null) {
+                    leases.put(operationId, key);
+                }
+            }
+        }
+        if (leases.isEmpty()) {
+            return;
+        }
+
+        List<String> finished = generationRequestRepository.findOperationIdsInStatus(leases.keySet(), COMPLETED_STATUSES);
+        for (String operationId : finished) {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(leases.get(operationId)), operationId);
+        }
+        if (!finished.isEmpty()) {
+            meterRegistry.counter("generation.lease.reconciled").increment(finished.size());
+            log.warn("🧹 Сняты утекшие аренды генераций: {}", finished.size());
+        }
+    }
+
+    private void reconcileSafely() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.warn("⚠️ Сверка аренд генераций не удалась: {}", e.getMessage());
+        }
+    }
+
+    private boolean hasActiveRequestInDb(Long userId) {
+        Optional<GenerationRequest> activeRequest =
+                generationRequestRepository.findTopByUserTelegramIdAndStatusNotInOrderByCreatedAtDesc(
+                        userId, COMPLETED_STATUSES);
+        activeRequest.ifPresent(request ->
+                log.info("🚫 Пользователь {} имеет активный запрос: {}", userId, request.getOperationId()));
+        return activeRequest.isPresent();
+    }
+
+    private Duration leaseTtl() {
+        return workerProperties.getTimeout().plus(grace);
+    }
+
+    private String key(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+
+    private void record(String result) {
+        meterRegistry.counter("generation.lease.acquire", "result", result).increment();
+    }
+}
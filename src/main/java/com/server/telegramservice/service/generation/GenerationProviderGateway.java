@@ -0,0 +1,416 @@
+package com.server.telegramservice.service.generation;
+
+import com.server.telegramservice.dto.requests.GenerationRequestDTO;
+import com.server.telegramservice.dto.requests.KieAi.KieAiFluxImageRequest;
+import com.server.telegramservice.dto.requests.KieAi.KieAiImageToImageRequest;
+import com.server.telegramservice.dto.requests.KieAi.KieAiStableDiffusionRequest;
+import com.server.telegramservice.dto.requests.Runway.RunwayRequestFromImageToVideo;
+import com.server.telegramservice.dto.requests.Runway.RunwayTextToImageRequest;
+import com.server.telegramservice.dto.responses.KieAi.KieAiFluxImageResponse;
+import com.server.telegramservice.dto.responses.KieAi.KieAiImageTaskResponse;
+import com.server.telegramservice.dto.responses.KieAi.KieAiImageToImageResponse;
+import com.server.telegramservice.dto.responses.KieAi.KieAiStableDiffusionResponse;
+import com.server.telegramservice.dto.responses.RunWay.RunWayTaskResponse;
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import com.server.telegramservice.entity.enums.MediaType;
+import com.server.telegramservice.service.ai.image.KieAiImageService;
+import com.server.telegramservice.service.ai.video.RunwayService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Единая точка вызова провайдеров генерации: постановка задачи и чтение ее статуса
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class GenerationProviderGateway {
+
+    public static final String MODEL_FLUX = "flux";
+    public static final String MODEL_STABLE_DIFFUSION = "stable-diffusion";
+    public static final String MODEL_IMAGE_TO_IMAGE = "image-to-image";
+    public static final String MODEL_RUNWAY = "runway";
+
+    public static final String PROVIDER_KIEAI = "kieai";
+    public static final String PROVIDER_RUNWAY = "runway";
+
+    private final KieAiImageService kieAiImageService;
+    private final RunwayService runwayService;
+
+    // Публичный адрес сервиса для вебхуков Kie.ai; пусто - статус задач опрашивается
+    @Value("${generation.callback.base-url:}")
+    private String callbackBaseUrl;
+
+    @Value("${generation.callback.secret:}")
+    private String callbackSecret;
+
+    // Хосты провайдеров, с которых разрешено скачивать результат (совпадение или поддомен)
+    @Value("${generation.result-hosts:kie.ai,aiquickdraw.com,redpandaai.co,runwayml.com,dnznrvs05pmza.cloudfront.net}")
+    private List<String> resultHosts;
+
+    @PostConstruct
+    public void checkCallbackConfig() {
+        if (StringUtils.hasText(callbackBaseUrl) && !StringUtils.hasText(callbackSecret)) {
+            log.warn("⚠️ generation.callback.secret не задан: вебхуки Kie.ai отключены, статус задач опрашивается");
+        }
+    }
+
+    /**
+     * Завершение задачи придет вебхуком в AiCallbackController (Runway вебхуки не поддерживает).
+     * Без секрета вебхуки не подписываются и не принимаются.
+     */
+    public boolean supportsCallback(String model) {
+        return StringUtils.hasText(callbackBaseUrl)
+                && StringUtils.hasText(callbackSecret)
+                && !MODEL_RUNWAY.equals(model);
+    }
+
+    public boolean isValidCallbackToken(String token) {
+        if (!StringUtils.hasText(callbackSecret) || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(callbackSecret.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ссылку на результат присылает провайдер (в том числе в теле вебхука), поэтому скачиваем
+     * только по https с хостов провайдеров, а не с произвольного адреса
+     */
+    public boolean isAllowedResultUrl(String url) {
+        if (!StringUtils.hasText(url)) {
+            return false;
+        }
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        String host = uri.getHost();
+        if (!"https".equalsIgnoreCase(uri.getScheme()) || host == null || uri.getUserInfo() != null) {
+            return false;
+        }
+        String normalized = host.toLowerCase(Locale.ROOT);
+        return resultHosts.stream()
+                .map(allowed -> allowed.trim().toLowerCase(Locale.ROOT))
+                .anyMatch(allowed -> normalized.equals(allowed) || normalized.endsWith("." + allowed));
+    }
+
+    /**
+     * Провайдер, к API которого относится модель
+     */
+    public String providerOf(String model) {
+        return MODEL_RUNWAY.equals(model) ? PROVIDER_RUNWAY : PROVIDER_KIEAI;
+    }
+
+    /**
+     * Модель по умолчанию, если пользователь ее не выбрал
+     */
+    public String resolveModel(GenerationRequestDTO dto) {
+        if (dto.getModel() != null) {
+            return dto.getModel();
+        }
+        return dto.getMediaType() == MediaType.VIDEO ? MODEL_RUNWAY : MODEL_FLUX;
+    }
+
+    /**
+     * Ставит задачу у провайдера и возвращает его taskId
+     */
+    public String submit(GenerationRequestDTO dto) {
+        String model = resolveModel(dto);
+        log.debug("🔄 [{}] Вызываем API модели {}", dto.getOperationId(), model);
+
+        String taskId = switch (model) {
+            case MODEL_FLUX -> {
+                KieAiFluxImageResponse response = kieAiImageService.generateFluxImage(buildFluxRequest(dto));
+                yield response != null && response.getData() != null ? response.getData().getTaskId() : null;
+            }
+            case MODEL_STABLE_DIFFUSION -> {
+                KieAiStableDiffusionResponse response =
+                        kieAiImageService.generateStableDiffusion(buildStableDiffusionRequest(dto));
+                yield response != null && response.getData() != null ? response.getData().getTaskId() : null;
+            }
+            case MODEL_IMAGE_TO_IMAGE -> {
+                KieAiImageToImageResponse response = kieAiImageService.imageToImage(buildImageToImageRequest(dto));
+                yield response != null && response.getData() != null ? response.getData().getTaskId() : null;
+            }
+            case MODEL_RUNWAY -> {
+                RunWayTaskResponse response = dto.getMediaType() == MediaType.VIDEO
+                        ? runwayService.imageToVideo(buildRunwayVideoRequest(dto))
+                        : runwayService.textToImage(buildRunwayImageRequest(dto));
+                yield response != null ? response.getId() : null;
+            }
+            default -> throw new IllegalArgumentException("Неподдерживаемая модель: " + model);
+        };
+
+        if (taskId == null) {
+            throw new IllegalStateException("API " + model + " не вернул taskId");
+        }
+        log.info("✅ [{}] Задача {} поставлена у провайдера: {}", dto.getOperationId(), model, taskId);
+        return taskId;
+    }
+
+    /**
+     * Запрашивает текущий статус задачи у провайдера
+     */
+    public ProviderTaskState fetchState(String model, String taskId) {
+        if (MODEL_RUNWAY.equals(model)) {
+            return toState(runwayService.getTask(taskId));
+        }
+        return toState(kieAiImageService.getImageTask(taskId));
+    }
+
+    public Mono<ProviderTaskState> fetchStateAsync(String model, String taskId) {
+        if (MODEL_RUNWAY.equals(model)) {
+            return runwayService.getTaskAsync(taskId).map(this::toState);
+        }
+        return kieAiImageService.getImageTaskAsync(taskId).map(this::toState);
+    }
+
+    public ProviderTaskState toState(KieAiImageTaskResponse response) {
+        if (response == null || response.getStatus() == null) {
+            return new ProviderTaskState(GenerationStatus.RUNNING, null, null);
+        }
+        return switch (response.getStatus().toLowerCase()) {
+            case "success" -> new ProviderTaskState(GenerationStatus.SUCCEEDED, response.getImageUrl(), null);
+            case "failed" -> new ProviderTaskState(GenerationStatus.FAILED, null,
+                    response.getMessage() != null ? response.getMessage() : String.valueOf(response.getError()));
+            default -> new ProviderTaskState(GenerationStatus.RUNNING, null, null);
+        };
+    }
+
+    public ProviderTaskState toState(RunWayTaskResponse response) {
+        if (response == null || response.getStatus() == null) {
+            return new ProviderTaskState(GenerationStatus.RUNNING, null, null);
+        }
+        return switch (response.getStatus()) {
+            case "SUCCEEDED" -> new ProviderTaskState(GenerationStatus.SUCCEEDED,
+                    response.getOutput() != null && !response.getOutput().isEmpty() ? response.getOutput().get(0) : null,
+                    null);
+            case "FAILED" -> new ProviderTaskState(GenerationStatus.FAILED, null, response.getFailure());
+            case "CANCELLED" -> new ProviderTaskState(GenerationStatus.CANCELED, null, response.getFailure());
+            default -> new ProviderTaskState(GenerationStatus.RUNNING, null, null);
+        };
+    }
+
+    /**
+     * Разбор вебхука Kie.ai: {"code": 200, "msg": "...", "data": {"taskId": "...", "info": {...}}}
+     */
+    public ProviderTaskState fromKieCallback(Map<String, Object> payload) {
+        Map<String, Object> data = asMap(payload.get("data"));
+        Object code = payload.get("code");
+        String status = String.valueOf(data.getOrDefault("status", payload.get("status"))).toLowerCase();
+        String resultUrl = extractKieResultUrl(data);
+
+        boolean failed = (code != null && !"200".equals(String.valueOf(code)))
+                || status.startsWith("fail")
+                || status.equals("error");
+        if (failed) {
+            Object message = payload.get("msg") != null ? payload.get("msg") : data.get("errorMessage");
+            return new ProviderTaskState(GenerationStatus.FAILED, null, String.valueOf(message));
+        }
+        if (resultUrl != null) {
+            return new ProviderTaskState(GenerationStatus.SUCCEEDED, resultUrl, null);
+        }
+        return new ProviderTaskState(GenerationStatus.RUNNING, null, null);
+    }
+
+    public String extractKieTaskId(Map<String, Object> payload) {
+        Object taskId = asMap(payload.get("data")).get("taskId");
+        if (taskId == null) {
+            taskId = payload.get("taskId");
+        }
+        return taskId != null ? String.valueOf(taskId) : null;
+    }
+
+    private String extractKieResultUrl(Map<String, Object> data) {
+        Map<String, Object> info = asMap(data.get("info"));
+        for (Object candidate : List.of(
+                info.getOrDefault("resultImageUrl", ""),
+                info.getOrDefault("result_urls", ""),
+                info.getOrDefault("resultUrls", ""),
+                data.getOrDefault("resultUrls", ""),
+                data.getOrDefault("resultImageUrl", ""),
+                data.getOrDefault("imageUrl", ""))) {
+            String url = firstUrl(candidate);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    private String firstUrl(Object value) {
+        if (value instanceof String url && StringUtils.hasText(url)) {
+            return url;
+        }
+        if (value instanceof List<?> urls && !urls.isEmpty() && urls.get(0) != null) {
+            return String.valueOf(urls.get(0));
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> asMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Map.of();
+    }
+
+    private String callbackUrl(GenerationRequestDTO dto) {
+        if (!supportsCallback(resolveModel(dto))) {
+            return null;
+        }
+        // Значения подставляются через переменные шаблона: так кодируются и &, + и = в секрете
+        return UriComponentsBuilder.fromUriString(callbackBaseUrl)
+                .path("/api/kie/callback")
+                .queryParam("operationId", "{operationId}")
+                .queryParam("token", "{token}")
+                .encode()
+                .buildAndExpand(dto.getOperationId(), callbackSecret)
+                .toUriString();
+    }
+
+    // Построение запросов к провайдерам
+
+    private KieAiFluxImageRequest buildFluxRequest(GenerationRequestDTO dto) {
+        KieAiFluxImageRequest req = new KieAiFluxImageRequest(
+                enhancePromptForFlux(dto.getPrompt(), dto.getStyle()),
+                "flux-kontext-pro",
+                dto.getAspectRatio() != null ? dto.getAspectRatio() : "1:1"
+        );
+        req.setCallBackUrl(callbackUrl(dto));
+        return req;
+    }
+
+    private KieAiStableDiffusionRequest buildStableDiffusionRequest(GenerationRequestDTO dto) {
+        KieAiStableDiffusionRequest req = new KieAiStableDiffusionRequest(
+                enhancePromptForFlux(dto.getPrompt(), dto.getStyle()));
+        req.setNegativePrompt(dto.getNegativePrompt());
+        req.setSeed(dto.getSeed());
+        req.setCallBackUrl(callbackUrl(dto));
+        if (dto.getSteps() != null) {
+            req.setSteps(dto.getSteps());
+        }
+        switch (dto.getAspectRatio() != null ? dto.getAspectRatio() : "1:1") {
+            case "16:9" -> { req.setWidth(1344); req.setHeight(768); }
+            case "9:16" -> { req.setWidth(768); req.setHeight(1344); }
+            default -> { req.setWidth(1024); req.setHeight(1024); }
+        }
+        return req;
+    }
+
+    private KieAiImageToImageRequest buildImageToImageRequest(GenerationRequestDTO dto) {
+        if (dto.getSourceImageUrl() == null) {
+            throw new IllegalArgumentException("Для image-to-image нужно исходное изображение");
+        }
+        KieAiImageToImageRequest req = new KieAiImageToImageRequest(
+                enhancePromptForFlux(dto.getPrompt(), dto.getStyle()), dto.getSourceImageUrl());
+        req.setCallBackUrl(callbackUrl(dto));
+        if (dto.getStrength() != null) {
+            req.setStrength(dto.getStrength());
+        }
+        if (dto.getSteps() != null) {
+            req.setSteps(dto.getSteps());
+        }
+        return req;
+    }
+
+    private RunwayTextToImageRequest buildRunwayImageRequest(GenerationRequestDTO dto) {
+        return new RunwayTextToImageRequest(
+                "gen4_image",
+                enhancePromptForRunway(dto.getPrompt(), dto.getStyle()),
+                1,
+                convertAspectRatioForRunway(dto.getAspectRatio(), MediaType.IMAGE),
+                null
+        );
+    }
+
+    private RunwayRequestFromImageToVideo buildRunwayVideoRequest(GenerationRequestDTO dto) {
+        if (dto.getSourceImageUrl() == null) {
+            throw new IllegalArgumentException("Для видео Runway нужен исходный кадр");
+        }
+        return new RunwayRequestFromImageToVideo(
+                dto.getSourceImageUrl(),
+                dto.getSeed() != null ? dto.getSeed().longValue() : null,
+                "gen4_turbo",
+                enhancePromptForRunway(dto.getPrompt(), dto.getStyle()),
+                5,
+                convertAspectRatioForRunway(dto.getAspectRatio(), MediaType.VIDEO)
+        );
+    }
+
+    /**
+     * Улучшение промптов для разных моделей
+     */
+    private String enhancePromptForFlux(String prompt, String style) {
+        StringBuilder enhanced = new StringBuilder(prompt);
+
+        if (style == null) {
+            enhanced.append(", high quality digital art");
+            return enhanced.toString();
+        }
+
+        switch (style) {
+            case "realism" -> enhanced.append(", hyperrealistic, 8k resolution, professional lighting, photographic quality");
+            case "anime" -> enhanced.append(", anime art style, detailed anime character design, cel-shaded, vibrant");
+            case "artistic" -> enhanced.append(", artistic masterpiece, creative composition, expressive art style");
+            case "grunge" -> enhanced.append(", grunge art style, rough textures, alternative aesthetic, distressed look");
+            case "cyberpunk" -> enhanced.append(", cyberpunk aesthetic, neon colors, futuristic technology, sci-fi atmosphere");
+            case "impressionism" -> enhanced.append(", impressionist painting style, soft brushwork, atmospheric lighting");
+            case "gothic" -> enhanced.append(", gothic art style, dark romantic, ornate architecture, dramatic shadows");
+            case "pop_art" -> enhanced.append(", pop art style, bold graphic design, bright colors, contemporary art");
+            case "classical" -> enhanced.append(", classical art style, renaissance painting, traditional techniques");
+            case "abstract" -> enhanced.append(", abstract expressionism, non-figurative art, geometric composition");
+            case "surrealism" -> enhanced.append(", surrealist art, dreamlike imagery, fantastical elements, imaginative");
+            case "modern" -> enhanced.append(", modern art style, contemporary design, clean aesthetic, geometric");
+            case "sketch" -> enhanced.append(", detailed sketch, line art, pencil drawing style, artistic illustration");
+            case "vintage" -> enhanced.append(", vintage art style, retro design, aged textures, nostalgic feel");
+            // Для пользовательских стилей
+            default -> enhanced.append(", ").append(style).append(", high quality digital artwork, detailed");
+        }
+
+        return enhanced.toString();
+    }
+
+    private String enhancePromptForRunway(String prompt, String style) {
+        StringBuilder enhanced = new StringBuilder(prompt);
+        enhanced.append(", cinematic quality, smooth motion");
+
+        if ("realism".equals(style)) {
+            enhanced.append(", realistic video, natural movement");
+        } else if ("cyberpunk".equals(style)) {
+            enhanced.append(", cyberpunk atmosphere, futuristic setting");
+        }
+
+        return enhanced.toString();
+    }
+
+    private String convertAspectRatioForRunway(String aspectRatio, MediaType mediaType) {
+        String ratio = aspectRatio != null ? aspectRatio : "1:1";
+        if (mediaType == MediaType.VIDEO) {
+            return switch (ratio) {
+                case "16:9" -> "1280:720";
+                case "9:16" -> "720:1280";
+                default -> "960:960";
+            };
+        }
+        return switch (ratio) {
+            case "16:9" -> "1920:1080";
+            case "9:16" -> "1080:1920";
+            default -> "1024:1024";
+        };
+    }
+}
@@ -0,0 +1,148 @@
+package com.server.telegramservice.service.generation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.server.telegramservice.dto.requests.GenerationRequestDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сессии генерации и черновики мастера генерации: ограниченный по размеру и TTL кэш в памяти
+ * поверх Redis. Запись рассылает инвалидацию остальным инстансам через Redis pub/sub;
+ * если сообщение потерялось, устаревшая копия живет не дольше local-ttl. Кэш хранит и отдает
+ * копии DTO: изменения вызывающего кода не видны другим читателям, пока он не вызовет put.
+ */
+@Slf4j
+@Component
+public class GenerationSessionStore {
+
+    private static final String INVALIDATION_CHANNEL = "generation_session:invalidate";
+    private static final char SEPARATOR = '|';
+
+    private final RedisTemplate<String, GenerationRequestDTO> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, GenerationRequestDTO> nearCache;
+    private final RedisSerializer<GenerationRequestDTO> codec;
+
+    // Растет при каждой записи и инвалидации: значение, прочитанное из Redis до нее, в кэш не кладем
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // Свои сообщения об инвалидации пропускаем
+    private final String instanceId = UUID.randomUUID().toString();
+
+    public GenerationSessionStore(RedisTemplate<String, GenerationRequestDTO> redisTemplate,
+                                  StringRedisTemplate stringRedisTemplate,
+                                  RedisMessageListenerContainer listenerContainer,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${generation.session-cache.max-size:10000}") long maxSize,
+                                  @Value("${generation.session-cache.local-ttl:2m}") Duration localTtl) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.meterRegistry = meterRegistry;
+        this.codec = codec(redisTemplate);
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(localTtl)
+                .build();
+        Gauge.builder("generation.sessions.cache.size", nearCache, Cache::estimatedSize)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onInvalidation, new ChannelTopic(INVALIDATION_CHANNEL));
+    }
+
+    public Optional<GenerationRequestDTO> get(String key) {
+        GenerationRequestDTO local = nearCache.getIfPresent(key);
+        if (local != null) {
+            record("local");
+            return Optional.of(copy(local));
+        }
+
+        long seen = invalidations.get();
+        try {
+            GenerationRequestDTO shared = redisTemplate.opsForValue().get(key);
+            if (shared == null) {
+                record("miss");
+                return Optional.empty();
+            }
+            record("redis");
+            nearCache.asMap().compute(key, (k, current) -> invalidations.get() == seen ? shared : current);
+            return Optional.of(copy(shared));
+        } catch (Exception e) {
+            log.warn("⚠️ Redis недоступен для сессии генерации {}: {}", key, e.getMessage());
+            record("miss");
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, GenerationRequestDTO dto, Duration ttl) {
+        invalidations.incrementAndGet();
+        nearCache.put(key, copy(dto));
+        try {
+            redisTemplate.opsForValue().set(key, dto, ttl);
+            publishInvalidation(key);
+        } catch (Exception e) {
+            log.warn("⚠️ Сессия генерации {} сохранена только локально: {}", key, e.getMessage());
+        }
+    }
+
+    public void evict(String key) {
+        invalidations.incrementAndGet();
+        nearCache.invalidate(key);
+        try {
+            redisTemplate.delete(key);
+            publishInvalidation(key);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось удалить сессию генерации {} из Redis: {}", key, e.getMessage());
+        }
+    }
+
+    private void publishInvalidation(String key) {
+        stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, instanceId + SEPARATOR + key);
+    }
+
+    private void onInvalidation(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = payload.indexOf(SEPARATOR);
+        if (separator < 0 || payload.substring(0, separator).equals(instanceId)) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        nearCache.invalidate(payload.substring(separator + 1));
+        meterRegistry.counter("generation.sessions.invalidations").increment();
+    }
+
+    private GenerationRequestDTO copy(GenerationRequestDTO dto) {
+        return codec.deserialize(codec.serialize(dto));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisSerializer<GenerationRequestDTO> codec(RedisTemplate<String, GenerationRequestDTO> redisTemplate) {
+        return (RedisSerializer<GenerationRequestDTO>) redisTemplate.getValueSerializer();
+    }
+
+    private void record(String source) {
+        meterRegistry.counter("generation.sessions.reads", "source", source).increment();
+    }
+}
@@ -0,0 +1,383 @@
+package com.server.telegramservice.service.generation;
+
+import com.server.telegramservice.configuration.GenerationPollerProperties;
+import com.server.telegramservice.configuration.GenerationWorkerProperties;
+import com.server.telegramservice.dto.requests.GenerationRequest;
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import com.server.telegramservice.entity.repository.GenerationRequestRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Один планировщик на все задачи у провайдеров вместо потока со sleep на каждую задачу.
+ * Интервал опроса зависит от ожидаемой длительности модели, число запросов статуса
+ * ограничено по провайдеру, задачи дольше дедлайна переводятся в TIMEOUT.
+ * Каждую задачу опрашивает один инстанс - тот, что держит ее аренду в Redis.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class GenerationStatusPoller {
+
+    private static final String LEASE_PREFIX = "generation:poll:";
+
+    // Продлеваем или снимаем аренду, только если она все еще принадлежит этому инстансу
+    private static final RedisScript<Long> EXTEND_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final GenerationProviderGateway providerGateway;
+    private final GenerationCompletionService completionService;
+    private final GenerationConcurrencyLimiter concurrencyLimiter;
+    private final GenerationRequestRepository generationRequestRepository;
+    private final GenerationPollerProperties properties;
+    private final GenerationWorkerProperties workerProperties;
+    private final StringRedisTemplate redisTemplate;
+
+    // Владелец аренды задачи в Redis
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // operationId -> отслеживаемая задача
+    private final Map<String, PolledTask> tasks = new ConcurrentHashMap<>();
+
+    // Наблюдаемая длительность генерации по моделям (скользящее среднее), мс
+    private final Map<String, Double> observedLatency = new ConcurrentHashMap<>();
+
+    // Лимиты опроса по провайдерам; используются только потоком планировщика
+    private final Map<String, PollBudget> budgets = new HashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("generation-poller-"));
+        long tickMs = properties.getTick().toMillis();
+        scheduler.scheduleWithFixedDelay(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        long renewMs = properties.getLeaseTtl().toMillis() / 3;
+        scheduler.scheduleWithFixedDelay(this::renewLeases, renewMs, renewMs, TimeUnit.MILLISECONDS);
+        log.info("⏱️ Опросчик статусов генераций запущен, шаг {}", properties.getTick());
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Задачи, оставшиеся RUNNING без опрашивающего инстанса (рестарт, падение), подхватываем
+     * сразу после старта и затем раз в lease-ttl
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleRecovery() {
+        long intervalMs = properties.getLeaseTtl().toMillis();
+        scheduler.scheduleWithFixedDelay(this::recoverSafely, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void recoverRunningTasks() {
+        List<GenerationRequest> running =
+                generationRequestRepository.findByStatusAndProviderTaskIdIsNotNull(GenerationStatus.RUNNING);
+        int recovered = 0;
+        for (GenerationRequest request : running) {
+            if (tasks.containsKey(request.getOperationId()) || !claimLease(request.getOperationId())) {
+                continue;
+            }
+            long startedAt = request.getCreatedAt() != null
+                    ? request.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                    : System.currentTimeMillis();
+            track(request.getOperationId(), request.getModel(), request.getProviderTaskId(),
+                    providerGateway.supportsCallback(request.getModel()), startedAt);
+            recovered++;
+        }
+        if (recovered > 0) {
+            log.info("♻️ Восстановлено отслеживание {} задач генерации", recovered);
+        }
+        expireUnsubmitted();
+    }
+
+    /**
+     * RUNNING без taskId - инстанс упал между захватом запроса и ответом провайдера.
+     * Опрашивать нечего, после дедлайна такие генерации закрываются по таймауту.
+     */
+    private void expireUnsubmitted() {
+        LocalDateTime deadline = LocalDateTime.now().minus(workerProperties.getTimeout());
+        for (GenerationRequest request : generationRequestRepository
+                .findByStatusAndCreatedAtBefore(GenerationStatus.RUNNING, deadline)) {
+            if (request.getProviderTaskId() != null) {
+                continue;
+            }
+            log.error("⏰ [{}] Генерация без задачи у провайдера не завершилась за {}",
+                    request.getOperationId(), workerProperties.getTimeout());
+            completionService.complete(request.getOperationId(), null, new ProviderTaskState(GenerationStatus.TIMEOUT,
+                    null, "Задача не была поставлена провайдеру за " + workerProperties.getTimeout()));
+        }
+    }
+
+    private void recoverSafely() {
+        try {
+            recoverRunningTasks();
+        } catch (Exception e) {
+            log.warn("⚠️ Сверка задач генерации не удалась: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Ставит задачу на опрос. Для задач с вебхуком опрос редкий - только страховка
+     * на случай потерянного уведомления и контроль дедлайна.
+     */
+    public void track(String operationId, String model, String taskId, boolean callbackExpected) {
+        track(operationId, model, taskId, callbackExpected, System.currentTimeMillis());
+    }
+
+    private void track(String operationId, String model, String taskId, boolean callbackExpected, long startedAt) {
+        long expected = expectedLatencyMs(model);
+        long firstDelay = callbackExpected
+                ? Math.max(expected * 2, properties.getMaxInterval().toMillis())
+                : Math.max((long) (expected * 0.8), properties.getMinInterval().toMillis());
+
+        PolledTask task = new PolledTask(operationId, model, taskId, providerGateway.providerOf(model),
+                startedAt, startedAt + workerProperties.getTimeout().toMillis());
+        task.interval = Math.max(properties.getMinInterval().toMillis(), expected / 10);
+        task.nextPollAt = System.currentTimeMillis() + firstDelay;
+
+        tasks.put(operationId, task);
+        holdLease(operationId);
+        log.debug("📡 [{}] Задача {} поставлена на опрос, первый опрос через {}ms", operationId, taskId, firstDelay);
+    }
+
+    /**
+     * Генерацию завершил вебхук или другой инстанс - опрашивать ее больше не нужно
+     */
+    public void untrack(String operationId) {
+        if (tasks.remove(operationId) != null) {
+            releaseLease(operationId);
+            log.debug("📴 [{}] Задача снята с опроса", operationId);
+        }
+    }
+
+    public int trackedTasks() {
+        return tasks.size();
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+
+            List<PolledTask> due = tasks.values().stream()
+                    .filter(task -> task.deadline <= now || (!task.polling && task.nextPollAt <= now))
+                    .sorted(Comparator.comparingLong(task -> task.nextPollAt))
+                    .toList();
+
+            for (PolledTask task : due) {
+                if (task.deadline <= now) {
+                    expire(task);
+                } else if (budget(task.provider).tryTake(now)) {
+                    poll(task);
+                }
+                // Нет бюджета - задача остается к опросу на следующем шаге
+            }
+        } catch (Exception e) {
+            log.error("❌ Ошибка шага опросчика генераций: {}", e.getMessage(), e);
+        }
+    }
+
+    private void poll(PolledTask task) {
+        task.polling = true;
+        providerGateway.fetchStateAsync(task.model, task.taskId)
+                .defaultIfEmpty(new ProviderTaskState(GenerationStatus.RUNNING, null, null))
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(
+                        state -> onState(task, state),
+                        error -> {
+                            log.warn("⚠️ [{}] Не удалось получить статус задачи {}: {}",
+                                    task.operationId, task.taskId, error.getMessage());
+                            reschedule(task);
+                        });
+    }
+
+    private void onState(PolledTask task, ProviderTaskState state) {
+        if (!state.isFinished()) {
+            log.debug("⏳ [{}] Задача {} еще выполняется", task.operationId, task.taskId);
+            reschedule(task);
+            return;
+        }
+
+        untrack(task.operationId);
+        if (state.getStatus() == GenerationStatus.SUCCEEDED) {
+            recordLatency(task.model, System.currentTimeMillis() - task.startedAt);
+        }
+        complete(task, state);
+    }
+
+    private void expire(PolledTask task) {
+        untrack(task.operationId);
+        log.error("⏰ [{}] Задача {} не завершилась за {}", task.operationId, task.taskId, workerProperties.getTimeout());
+        ProviderTaskState state = new ProviderTaskState(GenerationStatus.TIMEOUT, null,
+                "Задача " + task.taskId + " не завершилась за " + workerProperties.getTimeout());
+        Schedulers.boundedElastic().schedule(() -> complete(task, state));
+    }
+
+    private void complete(PolledTask task, ProviderTaskState state) {
+        try {
+            // Если генерацию уже завершил вебхук, слот освобождаем сами
+            if (!completionService.complete(task.operationId, task.taskId, state)) {
+                concurrencyLimiter.release(task.operationId);
+            }
+        } catch (Exception e) {
+            log.error("❌ [{}] Ошибка завершения генерации: {}", task.operationId, e.getMessage(), e);
+            concurrencyLimiter.release(task.operationId);
+        }
+    }
+
+    private void reschedule(PolledTask task) {
+        long interval = Math.min(properties.getMaxInterval().toMillis(),
+                (long) (task.interval * properties.getBackoffMultiplier()));
+        task.interval = Math.max(properties.getMinInterval().toMillis(), interval);
+        task.nextPollAt = System.currentTimeMillis() + task.interval;
+        task.polling = false;
+    }
+
+    // Аренды задач в Redis
+
+    private boolean claimLease(String operationId) {
+        try {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue()
+                    .setIfAbsent(leaseKey(operationId), instanceId, properties.getLeaseTtl()));
+        } catch (Exception e) {
+            // Без Redis чужие задачи не подхватываем: следующая сверка попробует снова
+            log.warn("⚠️ [{}] Redis недоступен для аренды задачи: {}", operationId, e.getMessage());
+            return false;
+        }
+    }
+
+    private void holdLease(String operationId) {
+        try {
+            redisTemplate.opsForValue().set(leaseKey(operationId), instanceId, properties.getLeaseTtl());
+        } catch (Exception e) {
+            log.warn("⚠️ [{}] Не удалось записать аренду задачи: {}", operationId, e.getMessage());
+        }
+    }
+
+    private void releaseLease(String operationId) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(leaseKey(operationId)), instanceId);
+        } catch (Exception e) {
+            log.warn("⚠️ [{}] Не удалось снять аренду задачи, истечет по TTL: {}", operationId, e.getMessage());
+        }
+    }
+
+    /**
+     * Продлевает аренды отслеживаемых задач. Аренду, перешедшую к другому инстансу
+     * (эта истекла, пока Redis был недоступен), отдаем: задачу опрашивает он.
+     */
+    private void renewLeases() {
+        String ttlMs = String.valueOf(properties.getLeaseTtl().toMillis());
+        for (String operationId : tasks.keySet()) {
+            try {
+                String key = leaseKey(operationId);
+                Long extended = redisTemplate.execute(EXTEND_SCRIPT, List.of(key), instanceId, ttlMs);
+                if (extended != null && extended == 0
+                        && !Boolean.TRUE.equals(redisTemplate.opsForValue()
+                        .setIfAbsent(key, instanceId, properties.getLeaseTtl()))) {
+                    tasks.remove(operationId);
+                    log.info("↪️ [{}] Задачу опрашивает другой инстанс", operationId);
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ [{}] Не удалось продлить аренду задачи: {}", operationId, e.getMessage());
+            }
+        }
+    }
+
+    private String leaseKey(String operationId) {
+        return LEASE_PREFIX + operationId;
+    }
+
+    private long expectedLatencyMs(String model) {
+        Double observed = observedLatency.get(model);
+        return observed != null
+                ? observed.longValue()
+                : properties.expectedLatencyFor(model).toMillis();
+    }
+
+    private void recordLatency(String model, long latencyMs) {
+        observedLatency.merge(model, (double) latencyMs, (old, latest) -> old * 0.8 + latest * 0.2);
+    }
+
+    private PollBudget budget(String provider) {
+        return budgets.computeIfAbsent(provider, p -> new PollBudget(properties.maxQpsFor(p)));
+    }
+
+    private static class PolledTask {
+        private final String operationId;
+        private final String model;
+        private final String taskId;
+        private final String provider;
+        private final long startedAt;
+        private final long deadline;
+
+        private volatile long nextPollAt;
+        private volatile long interval;
+        private volatile boolean polling;
+
+        private PolledTask(String operationId, String model, String taskId, String provider,
+                           long startedAt, long deadline) {
+            this.operationId = operationId;
+            this.model = model;
+            this.taskId = taskId;
+            this.provider = provider;
+            this.startedAt = startedAt;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Token bucket: не больше maxQps запросов статуса в секунду на провайдера
+     */
+    private static class PollBudget {
+        private final double maxQps;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.currentTimeMillis();
+
+        private PollBudget(double maxQps) {
+            this.maxQps = maxQps;
+            this.capacity = Math.max(1, maxQps);
+            this.tokens = capacity;
+        }
+
+        private boolean tryTake(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * maxQps / 1000.0);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.server.telegramservice.service.generation;
+
+/**
+ * У модели нет свободного слота и очередь ожидания заполнена: запись нужно повторить позже
+ */
+public class ModelSlotUnavailableException extends RuntimeException {
+
+    public ModelSlotUnavailableException(String model) {
+        super("Нет свободных слотов для модели " + model);
+    }
+}
@@ -0,0 +1,22 @@
+package com.server.telegramservice.service.generation;
+
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Состояние задачи у провайдера генерации (Kie.ai, Runway)
+ */
+@Data
+@AllArgsConstructor
+public class ProviderTaskState {
+    private GenerationStatus status;
+    private String resultUrl;
+    private String errorMessage;
+
+    public boolean isFinished() {
+        return status == GenerationStatus.SUCCEEDED
+                || status == GenerationStatus.FAILED
+                || status == GenerationStatus.CANCELED;
+    }
+}
@@ -1,500 +1,292 @@
-//package com.server.telegramservice.service.kafka;
-//
-//import com.server.telegramservice.entity.enums.GenerationStatus;
-//import com.server.telegramservice.dto.requests.GenerationRequest;
-//import com.server.telegramservice.dto.requests.GenerationRequestDTO;
-//import com.server.telegramservice.entity.repository.GenerationRequestRepository;
-//import com.server.telegramservice.service.S3Service;
-//import lombok.RequiredArgsConstructor;
-//import lombok.extern.slf4j.Slf4j;
-//import org.springframework.beans.factory.annotation.Value;
-//import org.springframework.data.redis.core.RedisTemplate;
-//import org.springframework.http.*;
-//import org.springframework.stereotype.Service;
-//import org.springframework.web.client.RestTemplate;
-//import com.server.telegramservice.service.ai.image.KieAiImageService;
-//
-//import java.time.LocalDateTime;
-//import java.util.HashMap;
-//import java.util.Map;
-//import java.util.concurrent.CompletableFuture;
-//
-//@Service
-//@RequiredArgsConstructor
-//@Slf4j
-//public class GenerationConsumer {
-//
-//    private final GenerationRequestRepository generationRequestRepository;
-//    private final S3Service s3Service;
-//    private final KieAiImageService kieAiImageService;
-//    private final GenerationResultProducer resultProducer;
-//    private final RedisTemplate<String, byte[]> redisTemplate;
-//    private final RestTemplate restTemplate ;
-//
-//    /**
-//     * Основной метод обработки генерации
-//     */
-//    public void processGeneration(GenerationRequest entity, GenerationRequestDTO dto) {
-//        String operationId = entity.getOperationId();
-//        long startTime = System.currentTimeMillis();
-//
-//        log.info("🎨 [{}] Начинаем обработку генерации - Модель: {}, Тип: {}",
-//                operationId, dto.getBot(), dto.getMediaType());
-//
-//        try {
-//            // 1. Обновляем статус на RUNNING
-//            updateStatus(entity, GenerationStatus.RUNNING);
-//
-//            // 2. Вызываем API для генерации
-//            String resultUrl = callGenerationApi(dto, operationId);
-//
-//            if (resultUrl != null) {
-//                // 3. Загружаем результат в S3
-//                String s3Url = uploadResultToS3(resultUrl, dto, operationId);
-//
-//                // 4. Обновляем запрос в БД
-//                updateSuccessfulGeneration(entity, resultUrl, s3Url, startTime);
-//
-//                // 5. Отправляем результат в Kafka
-//                resultProducer.sendGenerationResult(operationId, s3Url, GenerationStatus.SUCCEEDED);
-//
-//                log.info("✅ [{}] Генерация завершена успешно за {}ms: {}",
-//                        operationId, System.currentTimeMillis() - startTime, s3Url);
-//
-//            } else {
-//                throw new RuntimeException("API вернул пустой результат");
-//            }
-//
-//        } catch (Exception e) {
-//            log.error("❌ [{}] Ошибка при обработке генерации: {}", operationId, e.getMessage(), e);
-//
-//            // Обновляем статус на FAILED
-//            updateFailedGeneration(entity, e.getMessage(), startTime);
-//
-//            // Отправляем уведомление об ошибке
-//            resultProducer.sendGenerationResult(operationId, null, GenerationStatus.FAILED);
-//        }
-//    }
-//
-//    /**
-//     * Асинхронная обработка генерации
-//     */
-//    public CompletableFuture<Void> processGenerationAsync(GenerationRequest entity, GenerationRequestDTO dto) {
-//        return CompletableFuture.runAsync(() -> processGeneration(entity, dto));
-//    }
-//
-//    /**
-//     * Вызов API для генерации контента
-//     */
-//    private String callGenerationApi(GenerationRequestDTO dto, String operationId) {
-//        try {
-//            log.debug("🔄 [{}] Вызываем {} API", operationId, dto.getBot());
-//            kieAiImageService.generateDalleImage();
-//            kieAiImageService.generateFluxImage();
-//            kieAiImageService.generateStableDiffusion();
-//            kieAiImageService.getImageTask(operationId);
-//
-//
-//            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-//                String resultUrl = extractResultUrl(response.getBody(), dto);
-//
-//                if (resultUrl != null) {
-//                    log.info("✅ [{}] API ответил успешно: {}", operationId, resultUrl);
-//                    return resultUrl;
-//                } else {
-//                    log.error("❌ [{}] Не удалось извлечь URL из ответа API", operationId);
-//                    return null;
-//                }
-//            } else {
-//                log.error("❌ [{}] API вернул ошибку: {}", operationId, response.getStatusCode());
-//                return null;
-//            }
-//
-//        } catch (Exception e) {
-//            log.error("❌ [{}] Ошибка вызова API: {}", operationId, e.getMessage(), e);
-//            throw new RuntimeException("Ошибка вызова API: " + e.getMessage(), e);
-//        }
-//    }
-//
-//    /**
-//     * Выполнение запроса с повторными попытками
-//     */
-//    private ResponseEntity<Map> executeWithRetry(String url, HttpEntity<Map<String, Object>> request, String operationId) {
-//        int maxRetries = 3;
-//        int delay = 1000; // 1 секунда
-//
-//        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-//            try {
-//                return restTemplate.exchange(url, HttpMethod.POST, request, Map.class);
-//
-//            } catch (Exception e) {
-//                log.warn("⚠️ [{}] Попытка {}/{} не удалась: {}", operationId, attempt, maxRetries, e.getMessage());
-//
-//                if (attempt == maxRetries) {
-//                    throw e;
-//                }
-//
-//                try {
-//                    Thread.sleep(delay * attempt); // Экспоненциальный backoff
-//                } catch (InterruptedException ie) {
-//                    Thread.currentThread().interrupt();
-//                    throw new RuntimeException("Прервано во время ожидания", ie);
-//                }
-//            }
-//        }
-//
-//        throw new RuntimeException("Все попытки исчерпаны");
-//    }
-//
-//    /**
-//     * Подготовка payload для разных API
-//     */
-//    private Map<String, Object> prepareApiPayload(GenerationRequestDTO dto) {
-//        Map<String, Object> payload = new HashMap<>();
-//
-//        switch (dto.getModel()) {
-//            case "dall-e-3":
-//                payload.put("model", "dall-e-3");
-//                payload.put("prompt", enhancePromptForDallE(dto.getPrompt(), dto.getStyle()));
-//                payload.put("size", convertAspectRatioToDallESize(dto.getAspectRatio()));
-//                payload.put("quality", dto.getQuality() != null ? dto.getQuality() : "standard");
-//                payload.put("style", "vivid");
-//                payload.put("n", 1);
-//                break;
-//
-//            case "flux":
-//                payload.put("model", "flux-1.1-pro");
-//                payload.put("prompt", enhancePromptForFlux(dto.getPrompt(), dto.getStyle()));
-//                payload.put("aspect_ratio", dto.getAspectRatio());
-//                payload.put("safety_tolerance", 2);
-//                payload.put("output_format", "png");
-//                if (dto.getNegativePrompt() != null) {
-//                    payload.put("negative_prompt", dto.getNegativePrompt());
-//                }
-//                if (dto.getSeed() != null) {
-//                    payload.put("seed", dto.getSeed());
-//                }
-//                break;
-//
-//            case "pika":
-//                payload.put("prompt", enhancePromptForPika(dto.getPrompt(), dto.getStyle()));
-//                payload.put("aspect_ratio", dto.getAspectRatio());
-//                payload.put("duration", 3.0);
-//                payload.put("fps", 24);
-//                payload.put("style", convertStyleForPika(dto.getStyle()));
-//                if (dto.getSeed() != null) {
-//                    payload.put("seed", dto.getSeed());
-//                }
-//                break;
-//
-//            case "runway":
-//                payload.put("text_prompt", enhancePromptForRunway(dto.getPrompt(), dto.getStyle()));
-//                payload.put("duration", 5);
-//                payload.put("ratio", dto.getAspectRatio());
-//                payload.put("watermark", false);
-//                payload.put("motion_level", 3); // Средний уровень движения
-//                break;
-//
-//            default:
-//                throw new IllegalArgumentException("Неподдерживаемая модель: " + dto.getModel());
-//        }
-//
-//        return payload;
-//    }
-//
-//    /**
-//     * Улучшение промптов для разных моделей
-//     */
-//    private String enhancePromptForDallE(String prompt, String style) {
-//        StringBuilder enhanced = new StringBuilder(prompt);
-//
-//        if (style == null) {
-//            enhanced.append(", high quality, detailed");
-//            return enhanced.toString();
-//        }
-//
-//        switch (style) {
-//            case "realism":
-//                enhanced.append(", photorealistic, high quality, detailed, professional photography, 8k resolution");
-//                break;
-//            case "anime":
-//                enhanced.append(", anime style, manga style, cel shading, vibrant colors, detailed anime art");
-//                break;
-//            case "artistic":
-//                enhanced.append(", artistic style, creative composition, expressive brushwork, fine art");
-//                break;
-//            case "grunge":
-//                enhanced.append(", grunge style, distressed, vintage, artistic, textured, alternative aesthetic");
-//                break;
-//            case "cyberpunk":
-//                enhanced.append(", cyberpunk style, neon lights, futuristic, digital art, dystopian atmosphere");
-//                break;
-//            case "impressionism":
-//                enhanced.append(", impressionist style, soft brushstrokes, light and color, painterly texture");
-//                break;
-//            case "gothic":
-//                enhanced.append(", gothic style, dark atmosphere, dramatic lighting, mysterious, ornate details");
-//                break;
-//            case "pop_art":
-//                enhanced.append(", pop art style, bold colors, graphic design, contemporary art, vibrant");
-//                break;
-//            case "classical":
-//                enhanced.append(", classical art style, renaissance inspired, traditional composition, elegant");
-//                break;
-//            case "abstract":
-//                enhanced.append(", abstract art style, non-representational, geometric forms, creative expression");
-//                break;
-//            case "surrealism":
-//                enhanced.append(", surrealist style, dreamlike, fantastical, imaginative, bizarre elements");
-//                break;
-//            case "modern":
-//                enhanced.append(", modern art style, contemporary design, clean lines, minimalist aesthetic");
-//                break;
-//            case "sketch":
-//                enhanced.append(", pencil sketch style, line art, hand-drawn, artistic sketch, monochrome");
-//                break;
-//            case "vintage":
-//                enhanced.append(", vintage style, retro aesthetic, aged appearance, nostalgic atmosphere");
-//                break;
-//            default:
-//                // Для пользовательских стилей добавляем базовые улучшения
-//                enhanced.append(", ").append(style).append(" style, high quality, detailed artwork");
-//                break;
-//        }
-//
-//        return enhanced.toString();
-//    }
-//
-//    private String enhancePromptForFlux(String prompt, String style) {
-//        StringBuilder enhanced = new StringBuilder(prompt);
-//
-//        if (style == null) {
-//            enhanced.append(", high quality digital art");
-//            return enhanced.toString();
-//        }
-//
-//        switch (style) {
-//            case "realism":
-//                enhanced.append(", hyperrealistic, 8k resolution, professional lighting, photographic quality");
-//                break;
-//            case "anime":
-//                enhanced.append(", anime art style, detailed anime character design, cel-shaded, vibrant");
-//                break;
-//            case "artistic":
-//                enhanced.append(", artistic masterpiece, creative composition, expressive art style");
-//                break;
-//            case "grunge":
-//                enhanced.append(", grunge art style, rough textures, alternative aesthetic, distressed look");
-//                break;
-//            case "cyberpunk":
-//                enhanced.append(", cyberpunk aesthetic, neon colors, futuristic technology, sci-fi atmosphere");
-//                break;
-//            case "impressionism":
-//                enhanced.append(", impressionist painting style, soft brushwork, atmospheric lighting");
-//                break;
-//            case "gothic":
-//                enhanced.append(", gothic art style, dark romantic, ornate architecture, dramatic shadows");
-//                break;
-//            case "pop_art":
-//                enhanced.append(", pop art style, bold graphic design, bright colors, contemporary art");
-//                break;
-//            case "classical":
-//                enhanced.append(", classical art style, renaissance painting, traditional techniques");
-//                break;
-//            case "abstract":
-//                enhanced.append(", abstract expressionism, non-figurative art, geometric composition");
-//                break;
-//            case "surrealism":
-//                enhanced.append(", surrealist art, dreamlike imagery, fantastical elements, imaginative");
-//                break;
-//            case "modern":
-//                enhanced.append(", modern art style, contemporary design, clean aesthetic, geometric");
-//                break;
-//            case "sketch":
-//                enhanced.append(", detailed sketch, line art, pencil drawing style, artistic illustration");
-//                break;
-//            case "vintage":
-//                enhanced.append(", vintage art style, retro design, aged textures, nostalgic feel");
-//                break;
-//            default:
-//                // Для пользовательских стилей
-//                enhanced.append(", ").append(style).append(", high quality digital artwork, detailed");
-//                break;
-//        }
-//
-//        return enhanced.toString();
-//    }
-//
-//    private String enhancePromptForPika(String prompt, String style) {
-//        StringBuilder enhanced = new StringBuilder(prompt);
-//        enhanced.append(", smooth animation, high quality video");
-//
-//        switch (style) {
-//            case "anime":
-//                enhanced.append(", anime animation style, 2D animation");
-//                break;
-//            case "realism":
-//                enhanced.append(", realistic movement, natural lighting");
-//                break;
-//        }
-//
-//        return enhanced.toString();
-//    }
-//
-//    private String enhancePromptForRunway(String prompt, String style) {
-//        StringBuilder enhanced = new StringBuilder(prompt);
-//        enhanced.append(", cinematic quality, smooth motion");
-//
-//        switch (style) {
-//            case "realism":
-//                enhanced.append(", realistic video, natural movement");
-//                break;
-//            case "cyberpunk":
-//                enhanced.append(", cyberpunk atmosphere, futuristic setting");
-//                break;
-//        }
-//
-//        return enhanced.toString();
-//    }
-//
-//    /**
-//     * Получение endpoint для модели
-//     */
-//    private String getApiEndpoint(String model) {
-//        return switch (model) {
-//            case "dall-e-3" -> "/v1/images/generations";
-//            case "flux" -> "/v1/flux/generations";
-//            case "pika" -> "/v1/pika/generations";
-//            case "runway" -> "/v1/runway/generations";
-//            default -> throw new IllegalArgumentException("Неизвестная модель: " + model);
-//        };
-//    }
-//
-//    /**
-//     * Извлечение URL результата из ответа API
-//     */
-//    private String extractResultUrl(Map<String, Object> response, GenerationRequestDTO dto) {
-//        try {
-//            // Для DALL-E 3
-//            if ("dall-e-3".equals(dto.getModel()) && response.containsKey("data")) {
-//                @SuppressWarnings("unchecked")
-//                java.util.List<Map<String, Object>> dataList =
-//                        (java.util.List<Map<String, Object>>) response.get("data");
-//                if (!dataList.isEmpty()) {
-//                    return (String) dataList.get(0).get("url");
-//                }
-//            }
-//
-//            // Для Flux
-//            if ("flux".equals(dto.getModel()) && response.containsKey("url")) {
-//                return (String) response.get("url");
-//            }
-//
-//            // Для видео (Pika, Runway)
-//            if ((dto.getMediaType() == com.server.telegramservice.entity.enums.MediaType.VIDEO)) {
-//                if (response.containsKey("video_url")) {
-//                    return (String) response.get("video_url");
-//                }
-//                if (response.containsKey("url")) {
-//                    return (String) response.get("url");
-//                }
-//            }
-//
-//            // Общий случай
-//            if (response.containsKey("url")) {
-//                return (String) response.get("url");
-//            }
-//
-//            log.warn("⚠️ Не удалось извлечь URL из ответа: {}", response);
-//            return null;
-//
-//        } catch (Exception e) {
-//            log.error("❌ Ошибка извлечения URL: {}", e.getMessage());
-//            return null;
-//        }
-//    }
-//
-//    /**
-//     * Загрузка результата в S3
-//     */
-//    private String uploadResultToS3(String resultUrl, GenerationRequestDTO dto, String operationId) {
-//        try {
-//            log.debug("📦 [{}] Загружаем в S3: {}", operationId, resultUrl);
-//
-//            // Скачиваем файл
-//            ResponseEntity<byte[]> response = restTemplate.getForEntity(resultUrl, byte[].class);
-//
-//            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-//                byte[] fileData = response.getBody();
-//
-//                // Определяем параметры файла
-//                String folder = dto.getMediaType() == com.server.telegramservice.entity.enums.MediaType.IMAGE ?
-//                        "images" : "videos";
-//                String extension = dto.getMediaType() == com.server.telegramservice.entity.enums.MediaType.IMAGE ?
-//                        ".png" : ".mp4";
-//                String filename = String.format("%s_%s_%s%s",
-//                        operationId, dto.getModel(), dto.getStyle(), extension);
-//                String contentType = dto.getMediaType() == com.server.telegramservice.entity.enums.MediaType.IMAGE ?
-//                        "image/png" : "video/mp4";
-//
-//                // Загружаем в S3
-//                String s3Url = s3Service.uploadBytes(fileData, folder, filename, contentType);
-//
-//                log.info("✅ [{}] Файл загружен в S3: {}", operationId, s3Url);
-//                return s3Url;
-//
-//            } else {
-//                throw new RuntimeException("Не удалось скачать файл: " + response.getStatusCode());
-//            }
-//
-//        } catch (Exception e) {
-//            log.error("❌ [{}] Ошибка загрузки в S3: {}", operationId, e.getMessage(), e);
-//            throw new RuntimeException("Ошибка загрузки в S3", e);
-//        }
-//    }
-//
-//    // Утилитарные методы для обновления БД
-//
-//    private void updateStatus(GenerationRequest entity, GenerationStatus status) {
-//        entity.setStatus(status);
-//        generationRequestRepository.save(entity);
-//    }
-//
-//    private void updateSuccessfulGeneration(GenerationRequest entity, String resultUrl, String s3Url, long startTime) {
-//        entity.setStatus(GenerationStatus.SUCCEEDED);
-//        entity.setResultUrl(resultUrl);
-//        entity.setS3Url(s3Url);
-//        entity.setCompletedAt(LocalDateTime.now());
-//        entity.setProcessingTimeMs(System.currentTimeMillis() - startTime);
-//        generationRequestRepository.save(entity);
-//    }
-//
-//    private void updateFailedGeneration(GenerationRequest entity, String errorMessage, long startTime) {
-//        entity.setStatus(GenerationStatus.FAILED);
-//        entity.setErrorMessage(errorMessage);
-//        entity.setCompletedAt(LocalDateTime.now());
-//        entity.setProcessingTimeMs(System.currentTimeMillis() - startTime);
-//        generationRequestRepository.save(entity);
-//    }
-//
-//    // Утилитарные методы конвертации
-//
-//    private String convertAspectRatioToDallESize(String aspectRatio) {
-//        return switch (aspectRatio) {
-//            case "1:1" -> "1024x1024";
-//            case "16:9" -> "1792x1024";
-//            case "9:16" -> "1024x1792";
-//            default -> "1024x1024";
-//        };
-//    }
-//
-//    private String convertStyleForPika(String style) {
-//        return switch (style) {
-//            case "anime" -> "anime";
-//            case "realism" -> "realistic";
-//            case "cyberpunk" -> "cyberpunk";
-//            case "grunge" -> "artistic";
-//            default -> "realistic";
-//        };
-//    }
-//}
+package com.server.telegramservice.service.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.server.telegramservice.configuration.GenerationWorkerProperties;
+import com.server.telegramservice.configuration.KafkaConfig;
+import com.server.telegramservice.dto.requests.GenerationRequest;
+import com.server.telegramservice.dto.requests.GenerationRequestDTO;
+import com.server.telegramservice.entity.enums.GenerationStatus;
+import com.server.telegramservice.entity.repository.GenerationRequestRepository;
+import com.server.telegramservice.service.generation.GenerationCompletionService;
+import com.server.telegramservice.service.generation.GenerationConcurrencyLimiter;
+import com.server.telegramservice.service.generation.GenerationLeaseService;
+import com.server.telegramservice.service.generation.GenerationProviderGateway;
+import com.server.telegramservice.service.generation.GenerationStatusPoller;
+import com.server.telegramservice.service.generation.ModelSlotUnavailableException;
+import com.server.telegramservice.service.generation.ProviderTaskState;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class GenerationConsumer {
+
+    private final GenerationRequestRepository generationRequestRepository;
+    private final GenerationProviderGateway providerGateway;
+    private final GenerationCompletionService completionService;
+    private final GenerationStatusPoller statusPoller;
+    private final GenerationConcurrencyLimiter concurrencyLimiter;
+    private final GenerationLeaseService leaseService;
+    private final GenerationWorkerProperties workerProperties;
+    private final ObjectMapper objectMapper;
+
+    private static final List<GenerationStatus> DISPATCHABLE_STATUSES =
+            List.of(GenerationStatus.PENDING, GenerationStatus.CREATED);
+
+    private ExecutorService workerPool;
+    private ScheduledExecutorService parkRecovery;
+
+    // Модель -> запросы, которые ждут ее слот. Offset уже закоммичен, запрос в БД остается PENDING
+    private final Map<String, Deque<ParkedRequest>> parked = new ConcurrentHashMap<>();
+    private final Set<String> parkedOperations = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void initWorkerPool() {
+        this.workerPool = Executors.newFixedThreadPool(workerProperties.getPoolSize(),
+                new CustomizableThreadFactory("generation-worker-"));
+        concurrencyLimiter.onRelease(this::drainParked);
+        log.info("🚀 Пул воркеров генерации запущен: {} потоков", workerProperties.getPoolSize());
+    }
+
+    /**
+     * Отложенные в памяти запросы теряются при рестарте: периодически подбираем
+     * давно висящие PENDING-запросы из БД (на старте и затем раз в park-recovery-age)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startParkRecovery() {
+        long intervalMs = workerProperties.getParkRecoveryAge().toMillis();
+        this.parkRecovery = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("generation-park-recovery-"));
+        parkRecovery.scheduleWithFixedDelay(this::recoverStalePending, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdownWorkerPool() {
+        log.info("🧹 Останавливаем пул воркеров генерации...");
+        if (parkRecovery != null) {
+            parkRecovery.shutdownNow();
+        }
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Читает запросы из generation_requests и передает их воркерам.
+     * Poll-поток не ждет слот: занятая модель откладывает запрос в свою очередь в памяти
+     * и не задерживает запросы других моделей из той же partition.
+     */
+    @KafkaListener(topics = "${spring.kafka.topics.generation-requests}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = KafkaConfig.GENERATION_LISTENER_FACTORY,
+            concurrency = "${generation.consumer.concurrency:3}")
+    public void consume(ConsumerRecord<String, String> record) throws Exception {
+        GenerationRequestDTO dto = objectMapper.readValue(record.value(), GenerationRequestDTO.class);
+        if (dto.getOperationId() == null) {
+            dto.setOperationId(record.key());
+        }
+        String operationId = dto.getOperationId();
+        String model = providerGateway.resolveModel(dto);
+        dto.setModel(model);
+
+        Optional<GenerationRequest> found = generationRequestRepository.findByOperationId(operationId);
+        if (found.isEmpty()) {
+            log.warn("⚠️ [{}] Запрос генерации не найден в БД, пропускаем", operationId);
+            return;
+        }
+
+        GenerationRequest entity = found.get();
+        if (entity.getStatus() != GenerationStatus.PENDING && entity.getStatus() != GenerationStatus.CREATED) {
+            log.info("↩️ [{}] Запрос уже обработан (статус {}), пропускаем повтор", operationId, entity.getStatus());
+            return;
+        }
+
+        log.info("🎯 [{}] Запрос из партиции {} (offset {}), модель {}",
+                operationId, record.partition(), record.offset(), model);
+
+        if (!dispatchOrPark(entity, dto)) {
+            throw new RejectedExecutionException("Пул воркеров генерации остановлен");
+        }
+    }
+
+    /**
+     * Отдает запрос воркеру, если у модели есть слот, иначе ставит в очередь модели.
+     * Если очередь полна - ModelSlotUnavailableException: error handler поставит partition на паузу.
+     */
+    private boolean dispatchOrPark(GenerationRequest entity, GenerationRequestDTO dto) {
+        String model = dto.getModel();
+        String operationId = dto.getOperationId();
+        Deque<ParkedRequest> queue = parkedQueue(model);
+
+        synchronized (queue) {
+            // Новые запросы не обгоняют уже отложенные
+            boolean acquired = queue.isEmpty() && concurrencyLimiter.tryAcquire(operationId, model);
+            if (!acquired) {
+                if (!parkedOperations.add(operationId)) {
+                    return true;
+                }
+                if (queue.size() >= workerProperties.getMaxParkedPerModel()) {
+                    parkedOperations.remove(operationId);
+                    throw new ModelSlotUnavailableException(model);
+                }
+                queue.addLast(new ParkedRequest(entity, dto));
+                log.info("⏳ [{}] Слотов модели {} нет, запрос отложен (в очереди {})", operationId, model, queue.size());
+                return true;
+            }
+        }
+        return dispatch(entity, dto);
+    }
+
+    /**
+     * Слот модели освободился: отдаем воркерам отложенные запросы, пока есть слоты
+     */
+    private void drainParked(String model) {
+        Deque<ParkedRequest> queue = parkedQueue(model);
+        while (true) {
+            ParkedRequest next;
+            synchronized (queue) {
+                next = queue.peekFirst();
+                if (next == null || !concurrencyLimiter.tryAcquire(next.dto().getOperationId(), model)) {
+                    return;
+                }
+                queue.pollFirst();
+                parkedOperations.remove(next.dto().getOperationId());
+            }
+            dispatch(next.entity(), next.dto());
+        }
+    }
+
+    /**
+     * Слот уже занят. Переход PENDING -> RUNNING атомарный, поэтому запрос, поднятый
+     * и из Kafka, и из БД (park recovery), выполнится один раз.
+     */
+    private boolean dispatch(GenerationRequest entity, GenerationRequestDTO dto) {
+        String operationId = dto.getOperationId();
+        if (generationRequestRepository.transitionStatus(entity.getId(), GenerationStatus.RUNNING, DISPATCHABLE_STATUSES) == 0) {
+            log.info("↩️ [{}] Запрос уже взят в работу, пропускаем", operationId);
+            concurrencyLimiter.release(operationId);
+            return true;
+        }
+        entity.setStatus(GenerationStatus.RUNNING);
+
+        try {
+            // Слот освобождается при завершении генерации, а не при выходе из воркера
+            workerPool.execute(() -> processGeneration(entity, dto));
+            return true;
+        } catch (RejectedExecutionException e) {
+            concurrencyLimiter.release(operationId);
+            generationRequestRepository.transitionStatus(entity.getId(), GenerationStatus.PENDING,
+                    List.of(GenerationStatus.RUNNING));
+            log.warn("⚠️ [{}] Пул воркеров не принял запрос, он останется PENDING", operationId);
+            return false;
+        }
+    }
+
+    private void recoverStalePending() {
+        try {
+            LocalDateTime before = LocalDateTime.now().minus(workerProperties.getParkRecoveryAge());
+            List<GenerationRequest> stale =
+                    generationRequestRepository.findByStatusAndCreatedAtBefore(GenerationStatus.PENDING, before);
+            for (GenerationRequest entity : stale) {
+                if (!parkedOperations.contains(entity.getOperationId())) {
+                    try {
+                        dispatchOrPark(entity, toDto(entity));
+                    } catch (ModelSlotUnavailableException e) {
+                        // Очередь модели полна - подберем при следующем проходе
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось подобрать зависшие PENDING-запросы: {}", e.getMessage());
+        }
+    }
+
+    private Deque<ParkedRequest> parkedQueue(String model) {
+        return parked.computeIfAbsent(model, m -> new ArrayDeque<>());
+    }
+
+    private GenerationRequestDTO toDto(GenerationRequest entity) {
+        GenerationRequestDTO dto = new GenerationRequestDTO();
+        dto.setId(entity.getId());
+        dto.setOperationId(entity.getOperationId());
+        dto.setChatId(entity.getChatId());
+        dto.setPrompt(entity.getPrompt());
+        dto.setMediaType(entity.getMediaType());
+        dto.setStyle(entity.getStyle());
+        dto.setAspectRatio(entity.getAspectRatio());
+        dto.setModel(entity.getModel());
+        dto.setStatus(entity.getStatus());
+        dto.setNegativePrompt(entity.getNegativePrompt());
+        dto.setSeed(entity.getSeed());
+        dto.setStrength(entity.getStrength());
+        dto.setSteps(entity.getSteps());
+        dto.setQuality(entity.getQuality());
+        dto.setCreatedAt(entity.getCreatedAt());
+        return dto;
+    }
+
+    /**
+     * Основной метод обработки генерации: ставит задачу у провайдера и передает ее опросчику.
+     * При включенных вебхуках результат придет в AiCallbackController, опросчик лишь страхует.
+     */
+    public void processGeneration(GenerationRequest entity, GenerationRequestDTO dto) {
+        String operationId = entity.getOperationId();
+
+        log.info("🎨 [{}] Начинаем обработку генерации - Модель: {}, Тип: {}",
+                operationId, dto.getModel(), dto.getMediaType());
+
+        try {
+            String taskId = providerGateway.submit(dto);
+            // Только taskId: полный save мог бы затереть статус, уже выставленный вебхуком
+            generationRequestRepository.updateProviderTaskId(entity.getId(), taskId);
+            // Запрос мог ждать слот модели: дедлайн аренды отсчитываем от постановки задачи
+            if (dto.getUserId() != null) {
+                leaseService.extend(dto.getUserId(), operationId);
+            }
+
+            boolean callbackExpected = providerGateway.supportsCallback(dto.getModel());
+            statusPoller.track(operationId, dto.getModel(), taskId, callbackExpected);
+            log.info("📬 [{}] Задача {} поставлена у провайдера, ждем {}", operationId, taskId,
+                    callbackExpected ? "вебхук" : "результат опроса");
+
+        } catch (Exception e) {
+            log.error("❌ [{}] Ошибка при постановке генерации: {}", operationId, e.getMessage(), e);
+            if (!completionService.complete(operationId, null,
+                    new ProviderTaskState(GenerationStatus.FAILED, null, e.getMessage()))) {
+                concurrencyLimiter.release(operationId);
+            }
+        }
+    }
+
+    private record ParkedRequest(GenerationRequest entity, GenerationRequestDTO dto) {
+    }
+}
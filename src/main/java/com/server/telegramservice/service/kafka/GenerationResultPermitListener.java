@@ -0,0 +1,53 @@
+package com.server.telegramservice.service.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.server.telegramservice.service.generation.GenerationConcurrencyLimiter;
+import com.server.telegramservice.service.generation.GenerationStatusPoller;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Результаты генераций со всех инстансов: освобождаем слот, если он занят здесь,
+ * и снимаем задачу с опроса, если ее завершил вебхук на другом инстансе.
+ * Каждый инстанс читает все партиции топика без ребалансировки группы (ручное назначение)
+ * и начинает с конца: старые результаты к слотам этого инстанса отношения не имеют.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GenerationResultPermitListener implements ConsumerSeekAware {
+
+    private final GenerationConcurrencyLimiter concurrencyLimiter;
+    private final GenerationStatusPoller statusPoller;
+    private final ObjectMapper objectMapper;
+
+    // Партиции совпадают с KafkaConfig.generationResultsTopic
+    @KafkaListener(id = "generation-result-permits",
+            groupId = "${spring.kafka.consumer.group-id}-permits",
+            topicPartitions = @org.springframework.kafka.annotation.TopicPartition(
+                    topic = "${spring.kafka.topics.generation-results}", partitions = "0-2"),
+            properties = "enable.auto.commit=false")
+    public void onGenerationResult(String message) {
+        try {
+            Map<?, ?> result = objectMapper.readValue(message, Map.class);
+            Object operationId = result.get("operationId");
+            if (operationId != null) {
+                statusPoller.untrack(String.valueOf(operationId));
+                concurrencyLimiter.release(String.valueOf(operationId));
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось разобрать результат генерации: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        callback.seekToEnd(assignments.keySet());
+    }
+}
@@ -10,93 +10,49 @@ import com.server.telegramservice.telegram_bots.chat.impl.ChatPersistenceService
 import com.server.telegramservice.service.kafka.GenerationEventProducer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class GenerationSessionService {
 
-    List<GenerationStatus> completedStatuses = List.of(
-            GenerationStatus.SUCCEEDED,
-            GenerationStatus.FAILED,
-            GenerationStatus.CANCELED,
-            GenerationStatus.TIMEOUT,
-            GenerationStatus.UNKNOWN
-    );
     private final ChatPersistenceService chatPersistenceService;
     private final GenerationRequestRepository generationRequestRepository;
     private final GenerationEventProducer eventProducer;
-    private final RedisTemplate<String, Object> redisTemplate;
-
-    // Кэш активных сессий генерации
-    private final Map<String, GenerationRequestDTO> activeGenerations = new ConcurrentHashMap<>();
+    private final GenerationLeaseService leaseService;
+    private final GenerationSessionStore sessionStore;
 
     private static final String REDIS_PREFIX = "generation_session:";
     private static final Duration SESSION_TTL = Duration.ofHours(2);
 
     /**
-     * Проверяет, может ли пользователь создать новый запрос
+     * Проверяет, может ли пользователь создать новый запрос. Только для отображения:
+     * занимает слот атомарно submitGenerationRequest
      */
     public boolean canUserCreateNewGeneration(Long userId) {
-        // Проверяем активные запросы в БД
-        Optional<GenerationRequest> activeRequest =
-                generationRequestRepository.findTopByUserTelegramIdAndStatusNotInOrderByCreatedAtDesc(
-                        userId, completedStatuses
-                );
-
-        if (activeRequest.isPresent()) {
-            log.info("🚫 Пользователь {} имеет активный запрос: {}",
-                    userId, activeRequest.get().getOperationId());
-            return false;
-        }
-
-        return true;
+        return leaseService.isFree(userId);
     }
 
     /**
      * Получает активную сессию генерации для пользователя
      */
     public Optional<GenerationRequestDTO> getActiveGenerationSession(String userId) {
-        // Сначала проверяем в памяти
-        GenerationRequestDTO session = activeGenerations.get(userId);
-        if (session != null) {
-            return Optional.of(session);
-        }
-
-        // Проверяем в Redis
-        String redisKey = REDIS_PREFIX + userId;
-        session = (GenerationRequestDTO) redisTemplate.opsForValue().get(redisKey);
-
-        if (session != null) {
-            activeGenerations.put(userId, session);
-            return Optional.of(session);
-        }
-
-        return Optional.empty();
+        // Локальный кэш, затем Redis
+        return sessionStore.get(REDIS_PREFIX + userId);
     }
 
     /**
-     * Создает новую сессию генерации
+     * Создает новую сессию генерации. Слот пользователя не занимает: сессия становится активной
+     * в submitGenerationRequest, поэтому брошенный мастер никого не блокирует
      */
     public GenerationRequestDTO createGenerationSession(Long userId, Long chatId, String prompt,
                                                         MediaType mediaType, Bot botType) {
-        String userIdStr = String.valueOf(userId);
-
-        // Проверяем, может ли пользователь создать новый запрос
-        if (!canUserCreateNewGeneration(userId)) {
-            throw new IllegalStateException("У пользователя уже есть активный запрос генерации");
-        }
-
         String operationId = UUID.randomUUID().toString();
 
         GenerationRequestDTO dto = new GenerationRequestDTO();
@@ -109,11 +65,6 @@ public class GenerationSessionService {
         dto.setStatus(GenerationStatus.PENDING);
         dto.setCreatedAt(LocalDateTime.now());
 
-        // Сохраняем в память и Redis
-        activeGenerations.put(userIdStr, dto);
-        String redisKey = REDIS_PREFIX + userIdStr;
-        redisTemplate.opsForValue().set(redisKey, dto, SESSION_TTL);
-
         log.info("🆕 Создана сессия генерации [{}] для пользователя {}", operationId, userId);
         return dto;
     }
@@ -122,20 +73,23 @@ public class GenerationSessionService {
      * Обновляет сессию генерации
      */
     public void updateGenerationSession(String userId, GenerationRequestDTO dto) {
-        activeGenerations.put(userId, dto);
-        String redisKey = REDIS_PREFIX + userId;
-        redisTemplate.opsForValue().set(redisKey, dto, SESSION_TTL);
+        sessionStore.put(REDIS_PREFIX + userId, dto, SESSION_TTL);
 
         log.debug("🔄 Обновлена сессия генерации [{}] для пользователя {}",
                 dto.getOperationId(), userId);
     }
 
     /**
-     * Отправляет запрос на генерацию в Kafka и сохраняет в БД
+     * Отправляет запрос на генерацию в Kafka и сохраняет в БД. Здесь же атомарно занимает слот
+     * пользователя: из двух одновременных запросов пройдет один, второй получит IllegalStateException
      */
     public void submitGenerationRequest(GenerationRequestDTO dto) {
         String userId = String.valueOf(dto.getUserId());
 
+        if (!leaseService.tryAcquire(dto.getUserId(), dto.getOperationId())) {
+            throw new IllegalStateException("У пользователя уже есть активный запрос генерации");
+        }
+
         try {
             // Сохраняем в БД
             GenerationRequest entity = saveGenerationRequestToDb(dto);
@@ -152,6 +106,7 @@ public class GenerationSessionService {
         } catch (Exception e) {
             log.error("❌ Ошибка отправки запроса генерации [{}]: {}",
                     dto.getOperationId(), e.getMessage());
+            leaseService.release(dto.getUserId(), dto.getOperationId());
             throw new RuntimeException("Ошибка отправки запроса на генерацию", e);
         }
     }
@@ -161,10 +116,9 @@ public class GenerationSessionService {
      */
     public void completeGenerationSession(String userId, String operationId,
                                           GenerationStatus status, String resultUrl) {
-        // Удаляем из активных сессий
-        activeGenerations.remove(userId);
-        String redisKey = REDIS_PREFIX + userId;
-        redisTemplate.delete(redisKey);
+        // Удаляем из активных сессий на всех инстансах
+        sessionStore.evict(REDIS_PREFIX + userId);
+        leaseService.release(Long.valueOf(userId), operationId);
 
         log.info("✅ Завершена сессия генерации [{}] для пользователя {} со статусом {}",
                 operationId, userId, status);
@@ -1,16 +1,67 @@
 package com.server.telegramservice.telegram_bots;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
 @Slf4j
 public abstract class AbstractTelegramBot extends TelegramLongPollingBot {
 
+    private TelegramUpdateDispatcher updateDispatcher;
+
+    private TelegramSendQueue sendQueue;
+
+    @Autowired
+    public void setUpdateDispatcher(TelegramUpdateDispatcher updateDispatcher) {
+        this.updateDispatcher = updateDispatcher;
+    }
+
+    @Autowired
+    public void setSendQueue(TelegramSendQueue sendQueue) {
+        this.sendQueue = sendQueue;
+    }
+
+    /**
+     * Запрос к Telegram через очередь бота с учетом лимитов на бота и на чат; ждет ответа
+     */
+    public <T extends Serializable> T send(Long chatId, BotApiMethod<T> method) throws TelegramApiException {
+        return TelegramSendQueue.await(sendAsync(chatId, method, TelegramSendQueue.Priority.NORMAL));
+    }
+
+    public <T extends Serializable> T send(Long chatId, BotApiMethod<T> method, TelegramSendQueue.Priority priority)
+            throws TelegramApiException {
+        return TelegramSendQueue.await(sendAsync(chatId, method, priority));
+    }
+
+    public <T extends Serializable> CompletableFuture<T> sendAsync(Long chatId, BotApiMethod<T> method,
+                                                                  TelegramSendQueue.Priority priority) {
+        return sendQueue.submit(getBotUsername(), chatId, priority, () -> execute(method));
+    }
+
+    /**
+     * Отправка файлов (SendPhoto, SendDocument ...) через ту же очередь
+     */
+    public <T> T sendMedia(Long chatId, TelegramSendQueue.TelegramCall<T> call) throws TelegramApiException {
+        return TelegramSendQueue.await(sendQueue.submit(getBotUsername(), chatId, TelegramSendQueue.Priority.NORMAL, call));
+    }
+
+    /**
+     * Поток long polling только ставит update в очередь чата, обработка идет на виртуальном потоке
+     */
     @Override
     public void onUpdateReceived(Update update) {
+        updateDispatcher.dispatch(getBotUsername(), resolveChatId(update), () -> handleUpdate(update));
+    }
+
+    protected void handleUpdate(Update update) {
         try {
             if (update.hasMessage()) {
                 handleMessage(update.getMessage());
@@ -18,7 +69,7 @@ public abstract class AbstractTelegramBot extends TelegramLongPollingBot {
                 handleCallbackQuery(update.getCallbackQuery());
             }
         } catch (Exception e) {
-            log.error("❌ [{}} Ошибка обработки update: {}", getBotUsername(), e.getMessage(), e);
+            log.error("❌ [{}] Ошибка обработки update: {}", getBotUsername(), e.getMessage(), e);
             handleError(update, e);
         }
     }
@@ -28,12 +79,7 @@ public abstract class AbstractTelegramBot extends TelegramLongPollingBot {
     protected abstract void handleCallbackQuery(CallbackQuery callbackQuery);
 
     protected void handleError(Update update, Exception e) {
-        Long chatId = null;
-        if (update.hasMessage()) {
-            chatId = update.getMessage().getChatId();
-        } else if (update.hasCallbackQuery()) {
-            chatId = update.getCallbackQuery().getMessage().getChatId();
-        }
+        Long chatId = resolveChatId(update);
 
         if (chatId != null) {
             // Отправляем сообщение об ошибке через конкретную имплементацию
@@ -41,5 +87,14 @@ public abstract class AbstractTelegramBot extends TelegramLongPollingBot {
         }
     }
 
+    protected Long resolveChatId(Update update) {
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
+        } else if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return null;
+    }
+
     protected abstract void sendErrorMessage(Long chatId, String errorText);
-}
\ No newline at end of file
+}
@@ -1,5 +1,9 @@
 package com.server.telegramservice.telegram_bots;
 
+import com.server.telegramservice.entity.enums.Bot;
+import com.server.telegramservice.entity.enums.MessageType;
+import com.server.telegramservice.entity.enums.Sender;
+import com.server.telegramservice.entity.telegram.ChatSession;
 import com.server.telegramservice.entity.telegram.User;
 import com.server.telegramservice.service.ai.chat.ChatService;
 import com.server.telegramservice.telegram_bots.chat.impl.ChatPersistenceService;
@@ -10,20 +14,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.GetFile;
-import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.time.Duration;
 
 // Импорт оставляем как есть
 
 @Slf4j
 @Component
-public class MarketingBot extends TelegramLongPollingBot {
+public class MarketingBot extends AbstractTelegramBot {
 
     private final ChatService openAiChatService;
     private final CommandHandlerService commandHandler;
@@ -37,6 +42,12 @@ public class MarketingBot extends TelegramLongPollingBot {
     @Value("${telegrambots.bots[1].token}")
     private String botToken;
 
+    @Value("${telegrambots.streaming.edit-interval:1s}")
+    private Duration streamEditInterval;
+
+    @Value("${telegrambots.streaming.min-chars:20}")
+    private int streamMinChars;
+
     public MarketingBot(@Qualifier("openAiChatService") ChatService openAiChatService,
                         CommandHandlerService commandHandler,
                         ChatPersistenceService chatPersistenceService,
@@ -50,10 +61,7 @@ public class MarketingBot extends TelegramLongPollingBot {
     }
 
     @Override
-    public void onUpdateReceived(Update update) {
-        if (!update.hasMessage()) return;
-
-        var message = update.getMessage();
+    protected void handleMessage(Message message) {
         var chatId = message.getChatId();
         var telegramId = message.getFrom().getId();
         var username = message.getFrom().getUserName();
@@ -78,25 +86,43 @@ public class MarketingBot extends TelegramLongPollingBot {
     }
 
     private void handleTextMessage(User user, Long chatId, String userInput, String username) {
-        String reply;
         if (userInput.startsWith("/")) {
-            reply = commandHandler.handleCommand(userInput, username);
+            String reply = commandHandler.handleCommand(userInput, username);
             if (userInput.equalsIgnoreCase("/newsession")) {
                 chatPersistenceService.endActiveSession(user);
             }
-        } else {
-//            ChatSession session = chatPersistenceService.getOrCreateActiveSession(user);
-//            chatPersistenceService.saveMessage(session, Sender.USER, userInput);
+            sendSimpleMessage(chatId, reply);
+            return;
+        }
+
+        ChatSession session = chatPersistenceService.getOrCreateActiveSession(user);
+        chatPersistenceService.saveMessage(session, Sender.USER, userInput, Bot.MARKETOLOG, MessageType.TELEGRAM);
 
-            String systemPrompt = "Ты профессиональный digital-маркетолог с 10+ годами опыта. " +
-                    "Специализируешься на креативах, воронках, FOMO, CTA и ROI. Пиши кратко, ясно и с эмодзи 🎯💰🔥.";
-//
-////            var response = openAiChatService.generateResponseWithContext(userInput, systemPrompt, session);
-//            reply = response.getChoices().get(0).getMessage().getContent();
+        String systemPrompt = "Ты профессиональный digital-маркетолог с 10+ годами опыта. " +
+                "Специализируешься на креативах, воронках, FOMO, CTA и ROI. Пиши кратко, ясно и с эмодзи 🎯💰🔥.";
 
-//            chatPersistenceService.saveMessage(session, Sender.BOT, reply);
+        // Ответ показывается по мере генерации правками одного сообщения
+        TelegramStreamingReply reply = new TelegramStreamingReply(this, chatId, streamEditInterval, streamMinChars);
+        reply.start("✍️ Печатаю...");
+        try {
+            String response = openAiChatService.streamResponseWithContext(userInput, systemPrompt, session, Bot.MARKETOLOG,
+                    reply::append);
+            reply.finish(response);
+            chatPersistenceService.saveMessage(session, Sender.BOT, response, Bot.MARKETOLOG, MessageType.TELEGRAM);
+        } catch (Exception e) {
+            log.error("Ошибка ответа маркетолога", e);
+            reply.fail("❌ Не удалось получить ответ. Попробуйте еще раз.");
         }
-//        sendSimpleMessage(chatId, reply);
+    }
+
+    @Override
+    protected void handleCallbackQuery(CallbackQuery callbackQuery) {
+        // Маркетолог не использует inline-кнопки
+    }
+
+    @Override
+    protected void sendErrorMessage(Long chatId, String errorText) {
+        sendSimpleMessage(chatId, "❌ " + errorText);
     }
 
     // Остальные методы — handleIncomingPhoto, confirmPhoto и т.д. — могут быть оставлены как есть,
@@ -105,7 +131,7 @@ public class MarketingBot extends TelegramLongPollingBot {
     private void sendSimpleMessage(Long chatId, String text) {
         try {
             SendMessage message = new SendMessage(chatId.toString(), text);
-            execute(message);
+            send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("Ошибка отправки сообщения", e);
         }
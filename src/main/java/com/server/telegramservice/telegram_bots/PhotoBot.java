@@ -4,6 +4,10 @@ import com.server.telegramservice.entity.enums.*;
 import com.server.telegramservice.entity.telegram.ChatSession;
 import com.server.telegramservice.entity.telegram.User;
 import com.server.telegramservice.service.ai.chat.ChatService;
+import com.server.telegramservice.service.ai.chat.MediaIntentClassifier;
+import com.server.telegramservice.service.ai.chat.MediaRoutingResult;
+import com.server.telegramservice.service.generation.GenerationSessionService;
+import com.server.telegramservice.service.generation.GenerationSessionStore;
 import com.server.telegramservice.telegram_bots.chat.impl.ChatPersistenceService;
 import com.server.telegramservice.dto.requests.*;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
@@ -16,16 +20,18 @@ import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
-import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 import com.server.telegramservice.telegram_bots.chat.BotMessageBuilder;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 @Component
 @RequiredArgsConstructor
@@ -39,6 +45,12 @@ public class PhotoBot extends AbstractTelegramBot {
     @Value("${telegrambots.bots[2].token}")
     private String botToken;
 
+    @Value("${telegrambots.streaming.edit-interval:1s}")
+    private Duration streamEditInterval;
+
+    @Value("${telegrambots.streaming.min-chars:20}")
+    private int streamMinChars;
+
     @Qualifier("openAiChatService")
     private final ChatService chatService;
 
@@ -47,8 +59,17 @@ public class PhotoBot extends AbstractTelegramBot {
 
     private final ChatPersistenceService chatPersistenceService;
 
-    // Кэш для хранения временных данных генерации
-    private final Map<String, GenerationRequestDTO> userGenerationCache = new ConcurrentHashMap<>();
+    private final MediaIntentClassifier intentClassifier;
+
+    private final TelegramFileIdCache fileIdCache;
+
+    private final GenerationSessionService generationSessionService;
+
+    // Черновики мастера генерации (стиль, формат): общий для инстансов кэш поверх Redis
+    private final GenerationSessionStore sessionStore;
+
+    private static final String DRAFT_KEY_PREFIX = "generation_draft:photo_bot:";
+    private static final Duration DRAFT_TTL = Duration.ofHours(2);
 
     // Системные промпты
     private static final String SYSTEM_PROMPT_ANALYSIS = """
@@ -69,30 +90,6 @@ public class PhotoBot extends AbstractTelegramBot {
         """;
 
 
-    @Override
-    public void onUpdateReceived(Update update) {
-        try {
-            if (update.hasMessage()) {
-                handleMessage(update.getMessage());
-            } else if (update.hasCallbackQuery()) {
-                handleCallbackQuery(update.getCallbackQuery());
-            }
-        } catch (Exception e) {
-            log.error("❌ Ошибка обработки update: {}", e.getMessage(), e);
-
-            Long chatId = null;
-            if (update.hasMessage()) {
-                chatId = update.getMessage().getChatId();
-            } else if (update.hasCallbackQuery()) {
-                chatId = update.getCallbackQuery().getMessage().getChatId();
-            }
-
-            if (chatId != null) {
-                sendErrorMessage(chatId, "Произошла ошибка. Попробуйте еще раз.");
-            }
-        }
-    }
-
     @Override
     protected void handleMessage(Message message) {
         Long chatId = message.getChatId();
@@ -113,10 +110,8 @@ public class PhotoBot extends AbstractTelegramBot {
             handleHelpCommand(chatId);
         } else if (messageText.equals("/new")) {
             handleNewCommand(chatId, user);
-        } else if (isMediaGenerationRequest(messageText)) {
-            handleMediaGenerationRequest(chatId, messageText, session);
         } else {
-            handleTextChat(chatId, messageText, session);
+            routeFreeText(chatId, messageText, session);
         }
     }
 
@@ -148,17 +143,38 @@ public class PhotoBot extends AbstractTelegramBot {
             editMarkup.setChatId(chatId);
             editMarkup.setMessageId(callbackQuery.getMessage().getMessageId());
             editMarkup.setReplyMarkup(null);
-            execute(editMarkup);
+            send(chatId, editMarkup);
 
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка обработки callback: {}", e.getMessage());
         }
     }
 
+    /**
+     * Черновик мастера становится запросом генерации: сессия, запись в БД и отправка в Kafka
+     */
     private void handleGenerationConfirmation(Long chatId, String userId) {
-        if isMediaGenerationRequest()
-          handleMediaGenerationRequest
-                  тут нужно проверить все ещ ераз
+        GenerationRequestDTO draft = findDraft(userId);
+        if (draft == null) {
+            sendTextMessage(chatId, "⌛ Черновик устарел. Опишите заново, что хотите создать.");
+            return;
+        }
+
+        try {
+            GenerationRequestDTO request = generationSessionService.createGenerationSession(
+                    Long.valueOf(userId), chatId, draft.getPrompt(), draft.getMediaType(), Bot.PHOTO_BOT);
+            request.setStyle(draft.getStyle());
+            request.setAspectRatio(draft.getAspectRatio());
+            generationSessionService.submitGenerationRequest(request);
+
+            dropDraft(userId);
+            sendTextMessage(chatId, "🚀 Генерация запущена! Пришлю результат, как только он будет готов.");
+        } catch (IllegalStateException e) {
+            sendErrorMessage(chatId, "У вас уже есть активная генерация. Дождитесь результата.");
+        } catch (Exception e) {
+            log.error("❌ Ошибка запуска генерации для пользователя {}: {}", userId, e.getMessage());
+            sendErrorMessage(chatId, "Не удалось запустить генерацию. Попробуйте еще раз.");
+        }
     }
 
     private void handleStartCommand(Long chatId, User user) {
@@ -198,7 +214,7 @@ public class PhotoBot extends AbstractTelegramBot {
     private void handleNewCommand(Long chatId, User user) {
         // Очищаем кэш для пользователя
         String userId = String.valueOf(user.getTelegramId());
-        userGenerationCache.remove(userId);
+        dropDraft(userId);
 
         // Завершаем текущую сессию и создаем новую
         chatPersistenceService.endActiveSession(user);
@@ -207,96 +223,58 @@ public class PhotoBot extends AbstractTelegramBot {
         sendTextMessage(chatId, "🆕 Начинаем новый проект! Опишите, что хотите создать.");
     }
 
-    private boolean isMediaGenerationRequest(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return false;
-        }
+    /**
+     * Очевидный чат уходит в handleTextChat без LLM, остальное - один вызов маршрутизации
+     * (намерение, достаточность, стиль и формат) вместо классификации и отдельного анализа
+     */
+    private void routeFreeText(Long chatId, String messageText, ChatSession session) {
+        GenerationRequestDTO pending = findDraft(String.valueOf(session.getUser().getTelegramId()));
+        boolean awaitingCustomStyle = pending != null && "awaiting_custom".equals(pending.getStyle());
 
-        final String CLASSIFICATION_PROMPT = """
-        Ты - классификатор запросов. Определи, является ли запрос пользователя 
-        запросом на генерацию изображения или видео. Отвечай только "да" или "нет".
-        
-        Примеры запросов на генерацию:
-        - "Создай изображение кота в скафандре"
-        - "Нарисуй пейзаж заката в горах"
-        - "Сгенерируй фото девушки в стиле аниме"
-        - "Видео с летающими китами в космосе"
-        - "Картинка абстрактного искусства"
-        
-        Примеры НЕ запросов на генерацию:
-        - "Привет"
-        - "Как тебя зовут?"
-        - "Расскажи о возможностях"
-        - "Что ты умеешь?"
-        - "Помоги мне с идеей"
-        """;
+        if (awaitingCustomStyle || intentClassifier.isChat(messageText, session.getId())) {
+            handleTextChat(chatId, messageText, session);
+            return;
+        }
 
+        MediaRoutingResult routing;
         try {
-            // Отправляем запрос в модель
-            ChatCompletionResult result = chatService.generateResponse(
-                    "Запрос: " + text + "\n\nЭто запрос на генерацию изображения?",
-                    CLASSIFICATION_PROMPT
-            );
-
-            String response = result.getChoices().get(0).getMessage().getContent().trim().toLowerCase();
-
-            // Парсим ответ
-            boolean isMediaRequest = response.contains("да") ||
-                    response.contains("yes") ||
-                    response.contains("1");
-
-
-
-            return isMediaRequest;
-
+            routing = chatService.routeMediaRequest(messageText, session);
+            if (!routing.isGeneration()) {
+                intentClassifier.rememberChat(messageText, session.getId());
+            }
         } catch (Exception e) {
-            log.error("❌ Ошибка классификации запроса: {}", e.getMessage());
-            throw e;
+            log.error("❌ Ошибка анализа запроса: {}", e.getMessage());
+            sendErrorMessage(chatId, "Не удалось проанализировать запрос. Попробуйте переформулировать.");
+            return;
+        }
+
+        if (routing.isGeneration()) {
+            handleMediaGenerationRequest(chatId, messageText, session, routing);
+        } else {
+            handleTextChat(chatId, messageText, session);
         }
     }
 
-    private void handleMediaGenerationRequest(Long chatId, String prompt, ChatSession session) {
+    private void handleMediaGenerationRequest(Long chatId, String prompt, ChatSession session, MediaRoutingResult routing) {
         String userId = String.valueOf(session.getUser().getTelegramId());
 
-        try {
-            // Анализируем запрос на достаточность информации
-            final String ANALYSIS_PROMPT = """
-            Ты - помощник по анализу запросов для генерации изображений.
-            Проанализируй запрос пользователя и определи, достаточно ли информации для генерации.
-            Ответь только "да" или "нет".
-            
-            Критерии достаточности:
-            - Есть основной объект/субъект
-            - Указан стиль или контекст
-            - Присутствуют ключевые детали
-            """;
-
-            ChatCompletionResult analysis = chatService.generateResponseWithContext(
-                    "Запрос: " + prompt,
-                    ANALYSIS_PROMPT,session
-            );
-
-            String analysisResult = analysis.getChoices().get(0).getMessage().getContent().toLowerCase().trim();
-            boolean isSufficient = analysisResult.contains("да");
-
-
-
-            GenerationRequestDTO dto = new GenerationRequestDTO();
-            dto.setPrompt(prompt);
-            dto.setUserId(Long.parseLong(userId));
-            dto.setChatId(chatId);
-            dto.setMediaType(MediaType.IMAGE);
-
-            if (isSufficient) {
-                showGenerationPreview(chatId, dto);
-            } else {
-                // Запрашиваем дополнительные детали
-                requestAdditionalDetails(chatId, prompt, dto);
-            }
-
-        } catch (Exception e) {
-            log.error("❌ Ошибка анализа запроса: {}", e.getMessage());
-            sendErrorMessage(chatId, "Не удалось проанализировать запрос. Попробуйте переформулировать.");
+        GenerationRequestDTO dto = new GenerationRequestDTO();
+        dto.setPrompt(prompt);
+        dto.setUserId(Long.parseLong(userId));
+        dto.setChatId(chatId);
+        dto.setMediaType(routing.getMediaType());
+        dto.setStyle(routing.getStyle());
+        dto.setAspectRatio(routing.getAspectRatio());
+        saveDraft(userId, dto);
+
+        if (routing.isSufficient()) {
+            // Стиль и формат из запроса; чего нет - спрашиваем кнопками
+            askForClarification(chatId, dto, null);
+        } else if (!routing.getQuestions().isEmpty()) {
+            sendClarifyingQuestions(chatId, String.join("\n", routing.getQuestions()));
+        } else {
+            // Запрашиваем дополнительные детали
+            requestAdditionalDetails(chatId, prompt, dto);
         }
     }
 
@@ -323,8 +301,16 @@ public class PhotoBot extends AbstractTelegramBot {
             );
 
             String questions = detailsResponse.getChoices().get(0).getMessage().getContent();
+            sendClarifyingQuestions(chatId, questions);
 
+        } catch (Exception e) {
+            log.error("❌ Ошибка генерации уточнений: {}", e.getMessage());
+            sendTextMessage(chatId, "🖌️ Пожалуйста, уточните детали вашего запроса (стиль, цвета, детали объекта)");
+        }
+    }
 
+    private void sendClarifyingQuestions(Long chatId, String questions) {
+        try {
             // Отправляем вопросы пользователю
             SendMessage message = new SendMessage();
             message.setChatId(chatId);
@@ -333,11 +319,11 @@ public class PhotoBot extends AbstractTelegramBot {
             // Добавляем кнопку отмены
             InlineKeyboardMarkup keyboard = new InlineKeyboardMarkup();
             keyboard.setKeyboard(Collections.singletonList(
-                    Collections.singletonList(createInlineButton("❌ Отменить", "cancel_generation"))
+                    Collections.singletonList(botMessageBuilder.createInlineButton("❌ Отменить", "cancel_generation"))
             ));
             message.setReplyMarkup(keyboard);
 
-            execute(message);
+            send(chatId, message);
 
         } catch (Exception e) {
             log.error("❌ Ошибка генерации уточнений: {}", e.getMessage());
@@ -352,8 +338,8 @@ public class PhotoBot extends AbstractTelegramBot {
         } else if (dto.getAspectRatio() == null) {
             askForFormat(chatId);
         } else {
-            // Если все основные параметры есть, показываем превью
-            autoSelectModel(dto);
+            // Если все основные параметры есть, показываем превью; модель выберет воркер
+            saveDraft(String.valueOf(dto.getUserId()), dto);
             showGenerationPreview(chatId, dto);
         }
     }
@@ -401,7 +387,7 @@ public class PhotoBot extends AbstractTelegramBot {
         message.setReplyMarkup(keyboard);
 
         try {
-            execute(message);
+            send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки клавиатуры стилей: {}", e.getMessage());
         }
@@ -422,14 +408,14 @@ public class PhotoBot extends AbstractTelegramBot {
         message.setReplyMarkup(keyboard);
 
         try {
-            execute(message);
+            send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки клавиатуры форматов: {}", e.getMessage());
         }
     }
 
     private void handleStyleSelection(Long chatId, String userId, String callbackData) {
-        GenerationRequestDTO dto = userGenerationCache.get(userId);
+        GenerationRequestDTO dto = findDraft(userId);
         if (dto == null) return;
         String style = callbackData.replace("style_", "");
 
@@ -438,10 +424,12 @@ public class PhotoBot extends AbstractTelegramBot {
             sendTextMessage(chatId, "✏️ Введите описание желаемого стиля (например: 'в стиле Ван Гога', 'минимализм', 'неон'):");
             // Помечаем, что ждем пользовательский стиль
             dto.setStyle("awaiting_custom");
+            saveDraft(userId, dto);
             return;
         }
 
         dto.setStyle(style);
+        saveDraft(userId, dto);
 
         sendTextMessage(chatId, "✅ Стиль выбран: " + getStyleDisplayName(style));
 
@@ -454,7 +442,7 @@ public class PhotoBot extends AbstractTelegramBot {
     }
 
     private void handleFormatSelection(Long chatId, String userId, String callbackData) {
-        GenerationRequestDTO dto = userGenerationCache.get(userId);
+        GenerationRequestDTO dto = findDraft(userId);
         if (dto == null) return;
 
         String format = callbackData.replace("format_", "");
@@ -462,8 +450,8 @@ public class PhotoBot extends AbstractTelegramBot {
 
         sendTextMessage(chatId, "✅ Формат выбран: " + getFormatDisplayName(format));
 
-        // Автовыбор модели и показ превью
-        autoSelectModel(dto);
+        // Модель по типу медиа выберет воркер, показываем превью
+        saveDraft(userId, dto);
         showGenerationPreview(chatId, dto);
     }
 
@@ -499,7 +487,7 @@ public class PhotoBot extends AbstractTelegramBot {
         message.setReplyMarkup(keyboard);
 
         try {
-            execute(message);
+            send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки превью: {}", e.getMessage());
         }
@@ -528,7 +516,7 @@ public class PhotoBot extends AbstractTelegramBot {
         message.setReplyMarkup(keyboard);
 
         try {
-            execute(message);
+            send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки клавиатуры рейтинга: {}", e.getMessage());
         }
@@ -549,11 +537,12 @@ public class PhotoBot extends AbstractTelegramBot {
 
     private void handleTextChat(Long chatId, String messageText, ChatSession session) {
         String userId = String.valueOf(session.getUser().getTelegramId());
-        GenerationRequestDTO dto = userGenerationCache.get(userId);
+        GenerationRequestDTO dto = findDraft(userId);
 
         // Проверяем, ждем ли мы пользовательский стиль
         if (dto != null && "awaiting_custom".equals(dto.getStyle())) {
             dto.setStyle(messageText);
+            saveDraft(userId, dto);
             sendTextMessage(chatId, "✅ Ваш стиль сохранен: " + messageText);
 
             // Переходим к следующему шагу
@@ -565,20 +554,22 @@ public class PhotoBot extends AbstractTelegramBot {
             return;
         }
 
+        // Ответ показывается по мере генерации правками одного сообщения
+        TelegramStreamingReply reply = new TelegramStreamingReply(this, chatId, streamEditInterval, streamMinChars);
+        reply.start("✍️ Печатаю...");
+
         try {
-            ChatCompletionResult response = chatService.generateResponseWithContext(
-                    messageText, SYSTEM_PROMPT_CHAT, session);
+            String botResponse = chatService.streamResponseWithContext(
+                    messageText, SYSTEM_PROMPT_CHAT, session, Bot.PHOTO_BOT, reply::append);
 
-            String botResponse = response.getChoices().get(0).getMessage().getContent();
+            reply.finish(botResponse);
 
             // Сохраняем ответ бота
             chatPersistenceService.saveMessage(session, Sender.BOT, botResponse, Bot.PHOTO_BOT, MessageType.TELEGRAM);
 
-            sendTextMessage(chatId, botResponse);
-
         } catch (Exception e) {
             log.error("❌ Ошибка чата: {}", e.getMessage());
-            sendErrorMessage(chatId, "Не удалось получить ответ. Попробуйте еще раз.");
+            reply.fail("❌ Не удалось получить ответ. Попробуйте еще раз.");
         }
     }
 
@@ -590,29 +581,45 @@ public class PhotoBot extends AbstractTelegramBot {
         );
     }
 
+    private GenerationRequestDTO findDraft(String userId) {
+        return sessionStore.get(DRAFT_KEY_PREFIX + userId).orElse(null);
+    }
+
+    /**
+     * Хранилище отдает копию черновика, поэтому после каждого шага мастера его нужно сохранить заново
+     */
+    private void saveDraft(String userId, GenerationRequestDTO dto) {
+        sessionStore.put(DRAFT_KEY_PREFIX + userId, dto, DRAFT_TTL);
+    }
+
+    private void dropDraft(String userId) {
+        sessionStore.evict(DRAFT_KEY_PREFIX + userId);
+    }
+
     private void sendTextMessage(Long chatId, String text) {
+        sendTextMessage(chatId, text, TelegramSendQueue.Priority.NORMAL);
+    }
+
+    private void sendTextMessage(Long chatId, String text, TelegramSendQueue.Priority priority) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId);
         message.setText(text);
 
         try {
-            execute(message);
+            send(chatId, message, priority);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки сообщения: {}", e.getMessage());
         }
     }
 
     protected void sendErrorMessage(Long chatId, String errorText) {
-        sendTextMessage(chatId, "❌ " + errorText);
+        sendTextMessage(chatId, "❌ " + errorText, TelegramSendQueue.Priority.HIGH);
     }
 
     private void sendPhoto(Long chatId, String photoUrl) {
-        SendPhoto sendPhoto = new SendPhoto();
-        sendPhoto.setChatId(chatId);
-        sendPhoto.setPhoto(new InputFile(photoUrl));
-
         try {
-            execute(sendPhoto);
+            deliverMedia(photoUrl, source -> sendMedia(chatId, () -> execute(photoRequest(chatId, source))),
+                    this::photoFileId);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки фото: {}", e.getMessage());
             sendErrorMessage(chatId, "Не удалось отправить изображение.");
@@ -620,18 +627,113 @@ public class PhotoBot extends AbstractTelegramBot {
     }
 
     private void sendVideo(Long chatId, String videoUrl) {
-        SendDocument sendDocument = new SendDocument();
-        sendDocument.setChatId(chatId);
-        sendDocument.setDocument(new InputFile(videoUrl));
-
         try {
-            execute(sendDocument);
+            deliverMedia(videoUrl, source -> sendMedia(chatId, () -> execute(documentRequest(chatId, source))),
+                    this::documentFileId);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки видео: {}", e.getMessage());
             sendErrorMessage(chatId, "Не удалось отправить видео.");
         }
     }
 
+    private SendPhoto photoRequest(Long chatId, String photo) {
+        SendPhoto sendPhoto = new SendPhoto();
+        sendPhoto.setChatId(chatId);
+        sendPhoto.setPhoto(new InputFile(photo));
+        return sendPhoto;
+    }
+
+    private SendDocument documentRequest(Long chatId, String document) {
+        SendDocument sendDocument = new SendDocument();
+        sendDocument.setChatId(chatId);
+        sendDocument.setDocument(new InputFile(document));
+        return sendDocument;
+    }
+
+    /**
+     * Последний размер фото - самый большой
+     */
+    private String photoFileId(Message sent) {
+        if (!sent.hasPhoto()) {
+            return null;
+        }
+        List<PhotoSize> sizes = sent.getPhoto();
+        return sizes.get(sizes.size() - 1).getFileId();
+    }
+
+    /**
+     * mp4, отправленный документом, Telegram может вернуть как video или animation
+     */
+    private String documentFileId(Message sent) {
+        if (sent.hasDocument()) {
+            return sent.getDocument().getFileId();
+        }
+        if (sent.hasVideo()) {
+            return sent.getVideo().getFileId();
+        }
+        return sent.hasAnimation() ? sent.getAnimation().getFileId() : null;
+    }
+
+    /**
+     * Отправляет медиа по сохраненному file_id, иначе по URL, и запоминает file_id отправленного по URL.
+     * Сохраненный file_id забывается, только если Telegram ответил, что он недействителен.
+     */
+    private void deliverMedia(String url, MediaSend send, Function<Message, String> fileIdOf)
+            throws TelegramApiException {
+        Optional<String> fileId = fileIdCache.find(Bot.PHOTO_BOT, url);
+        if (fileId.isPresent()) {
+            try {
+                send.execute(fileId.get());
+                return;
+            } catch (TelegramApiException e) {
+                if (!isStaleFileId(e)) {
+                    throw e;
+                }
+                log.warn("⚠️ Telegram отклонил сохраненный file_id для {}, отправляем по URL", url);
+                fileIdCache.evict(Bot.PHOTO_BOT, url);
+            }
+        }
+
+        Message sent = send.execute(url);
+        String sentFileId = sent != null ? fileIdOf.apply(sent) : null;
+        if (sentFileId != null) {
+            fileIdCache.remember(Bot.PHOTO_BOT, url, sentFileId);
+        }
+    }
+
+    // 400 "wrong file identifier" / "file reference expired": file_id больше не принимается
+    private boolean isStaleFileId(TelegramApiException e) {
+        if (!(e instanceof TelegramApiRequestException requestError)
+                || !Integer.valueOf(400).equals(requestError.getErrorCode())) {
+            return false;
+        }
+        String response = String.valueOf(requestError.getApiResponse()).toLowerCase(Locale.ROOT);
+        return response.contains("wrong file identifier") || response.contains("file reference");
+    }
+
+    @FunctionalInterface
+    private interface MediaSend {
+        Message execute(String source) throws TelegramApiException;
+    }
+
+    /**
+     * Доставка готовой генерации в чат
+     */
+    public void deliverGenerationResult(Long chatId, MediaType mediaType, String url) {
+        if (mediaType == MediaType.VIDEO) {
+            sendVideo(chatId, url);
+        } else {
+            sendPhoto(chatId, url);
+        }
+        showRatingKeyboard(chatId);
+    }
+
+    public void notifyGenerationFailed(Long chatId, GenerationStatus status) {
+        sendErrorMessage(chatId, status == GenerationStatus.TIMEOUT
+                ? "Генерация заняла слишком много времени. Попробуйте еще раз."
+                : "Не удалось выполнить генерацию. Попробуйте еще раз.");
+    }
+
 
 
     private String getStyleDisplayName(String style) {
@@ -0,0 +1,94 @@
+package com.server.telegramservice.telegram_bots;
+
+import com.server.telegramservice.entity.enums.Bot;
+import com.server.telegramservice.entity.repository.FileRepository;
+import com.server.telegramservice.service.S3Service;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * file_id, которые Telegram вернул на отправку медиа, по ключу S3.
+ * Повторная отправка того же файла идет по file_id: Telegram не скачивает его из хранилища заново.
+ * file_id действителен только для бота, который его получил, поэтому бот входит в ключ.
+ * Redis - быстрый слой; надежно file_id хранится в строке File результата генерации
+ * (GenerationCompletionService записывает ее до доставки).
+ */
+@Slf4j
+@Component
+public class TelegramFileIdCache {
+
+    private static final String REDIS_KEY_PREFIX = "telegram:file-id:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final FileRepository fileRepository;
+    private final S3Service s3Service;
+    private final Duration ttl;
+
+    public TelegramFileIdCache(StringRedisTemplate redisTemplate,
+                               FileRepository fileRepository,
+                               S3Service s3Service,
+                               @Value("${telegrambots.file-id-cache.ttl:30d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.fileRepository = fileRepository;
+        this.s3Service = s3Service;
+        this.ttl = ttl;
+    }
+
+    public Optional<String> find(Bot bot, String s3Url) {
+        String redisKey = redisKey(bot, s3Url);
+        try {
+            String cached = redisTemplate.opsForValue().get(redisKey);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Redis недоступен для кэша file_id: {}", e.getMessage());
+        }
+
+        List<String> stored = fileRepository.findTelegramFileIds(s3Url, bot);
+        if (stored.isEmpty()) {
+            return Optional.empty();
+        }
+        writeShared(redisKey, stored.get(0));
+        return Optional.of(stored.get(0));
+    }
+
+    public void remember(Bot bot, String s3Url, String fileId) {
+        if (fileId == null) {
+            return;
+        }
+        writeShared(redisKey(bot, s3Url), fileId);
+        fileRepository.updateTelegramFileId(s3Url, bot, fileId);
+    }
+
+    /**
+     * Telegram отклонил file_id: следующая отправка снова пойдет по URL
+     */
+    public void evict(Bot bot, String s3Url) {
+        try {
+            redisTemplate.delete(redisKey(bot, s3Url));
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось удалить file_id из Redis: {}", e.getMessage());
+        }
+        fileRepository.updateTelegramFileId(s3Url, bot, null);
+    }
+
+    private void writeShared(String redisKey, String fileId) {
+        try {
+            redisTemplate.opsForValue().set(redisKey, fileId, ttl);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось сохранить file_id в Redis: {}", e.getMessage());
+        }
+    }
+
+    private String redisKey(Bot bot, String s3Url) {
+        String s3Key = s3Service.extractKeyFromUrl(s3Url);
+        return REDIS_KEY_PREFIX + bot.name() + ":" + (s3Key != null ? s3Key : s3Url);
+    }
+}
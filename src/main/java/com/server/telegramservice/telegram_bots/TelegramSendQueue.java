@@ -0,0 +1,341 @@
+package com.server.telegramservice.telegram_bots;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Исходящие запросы ботов к Telegram API. У каждого бота своя очередь с приоритетами,
+ * общий лимит на бота (~30 запросов/с) и лимит на чат (~1 сообщение/с с коротким всплеском).
+ * Запросы одного чата уходят по очереди, ответ 429 ставит бота на паузу retry_after; запрос повторяется
+ * на своем месте в очереди чата, поэтому следующие запросы чата его не обгоняют.
+ */
+@Slf4j
+@Component
+public class TelegramSendQueue {
+
+    public enum Priority {
+        // Ошибки и ответы, которых пользователь ждет прямо сейчас
+        HIGH,
+        NORMAL,
+        // Промежуточные правки стримингового ответа
+        LOW
+    }
+
+    @FunctionalInterface
+    public interface TelegramCall<T> {
+        T call() throws TelegramApiException;
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final double globalRate;
+    private final int globalBurst;
+    private final double chatRate;
+    private final int chatBurst;
+    private final int maxRetries;
+    private final Duration chatIdle;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("tg-send-", 0).factory());
+
+    // Отложенные до своего слота запросы возвращаются в очередь отсюда
+    private final ScheduledExecutorService delayer =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("tg-send-delay-"));
+
+    // bot -> очередь бота
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public TelegramSendQueue(MeterRegistry meterRegistry,
+                             @Value("${telegrambots.outbound.global-rate:30}") double globalRate,
+                             @Value("${telegrambots.outbound.global-burst:5}") int globalBurst,
+                             @Value("${telegrambots.outbound.chat-rate:1}") double chatRate,
+                             @Value("${telegrambots.outbound.chat-burst:3}") int chatBurst,
+                             @Value("${telegrambots.outbound.max-retries:3}") int maxRetries,
+                             @Value("${telegrambots.outbound.chat-idle:1m}") Duration chatIdle) {
+        this.meterRegistry = meterRegistry;
+        this.globalRate = globalRate;
+        this.globalBurst = globalBurst;
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.maxRetries = maxRetries;
+        this.chatIdle = chatIdle;
+    }
+
+    /**
+     * Ставит запрос в очередь бота. chatId == null - запрос без чата, ограничен только лимитом бота.
+     */
+    public <T> CompletableFuture<T> submit(String botName, Long chatId, Priority priority, TelegramCall<T> call) {
+        Job<T> job = new Job<>(chatId, priority, sequence.incrementAndGet(), call);
+        outboxes.computeIfAbsent(botName, Outbox::new).enqueue(job);
+        return job.result;
+    }
+
+    /**
+     * Ждет результата запроса; ошибка Telegram пробрасывается так же, как при прямом execute
+     */
+    public static <T> T await(CompletableFuture<T> future) throws TelegramApiException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException("Отправка прервана", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TelegramApiException telegramError) {
+                throw telegramError;
+            }
+            throw new TelegramApiException(e.getCause());
+        }
+    }
+
+    public int queueDepth(String botName) {
+        Outbox outbox = outboxes.get(botName);
+        return outbox != null ? outbox.depth.get() : 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        outboxes.values().forEach(Outbox::stop);
+        delayer.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Очередь одного бота: поток-диспетчер выдает слоты по лимитам и отдает запросы на виртуальные потоки
+     */
+    private final class Outbox {
+
+        private final String botName;
+        private final PriorityBlockingQueue<Job<?>> queue = new PriorityBlockingQueue<>();
+        private final RateSlot globalSlot = new RateSlot(globalRate, globalBurst);
+        private final Cache<Long, RateSlot> chatSlots;
+
+        // chatId -> последний запрос чата
+        private final Map<Long, CompletableFuture<Void>> chatTails = new ConcurrentHashMap<>();
+
+        private final AtomicInteger depth = new AtomicInteger();
+        private final Timer queueWait;
+        private final Timer sendLatency;
+        private final Thread dispatcher;
+
+        // До этого момента (System.nanoTime) Telegram просил не отправлять
+        private final AtomicLong pausedUntil = new AtomicLong(System.nanoTime());
+
+        Outbox(String botName) {
+            this.botName = botName;
+            this.chatSlots = Caffeine.newBuilder()
+                    .expireAfterAccess(chatIdle)
+                    .build();
+            this.queueWait = meterRegistry.timer("telegram.outbound.queue.wait", "bot", botName);
+            this.sendLatency = meterRegistry.timer("telegram.outbound.send.latency", "bot", botName);
+            Gauge.builder("telegram.outbound.queue.depth", depth, AtomicInteger::get)
+                    .tag("bot", botName)
+                    .register(meterRegistry);
+            this.dispatcher = Thread.ofVirtual().name("tg-outbox-" + botName).start(this::run);
+        }
+
+        void enqueue(Job<?> job) {
+            depth.incrementAndGet();
+            queue.offer(job);
+        }
+
+        private void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Job<?> job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    dispatch(job);
+                } catch (InterruptedException e) {
+                    job.result.completeExceptionally(new TelegramApiException("Очередь отправки остановлена"));
+                    return;
+                } catch (Exception e) {
+                    log.error("❌ [{}] Ошибка очереди отправки: {}", botName, e.getMessage(), e);
+                    job.result.completeExceptionally(e);
+                }
+            }
+        }
+
+        private void dispatch(Job<?> job) throws InterruptedException {
+            // Слот чата резервируется сразу, поэтому отложенные запросы чата сохраняют порядок
+            if (job.chatId != null && !job.chatSlotReserved) {
+                job.chatSlotReserved = true;
+                long delay = chatSlots.get(job.chatId, id -> new RateSlot(chatRate, chatBurst)).reserve(System.nanoTime());
+                if (delay > 0) {
+                    throttled("chat");
+                    delayer.schedule(() -> queue.offer(job), delay, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+
+            awaitGlobalSlot();
+
+            depth.decrementAndGet();
+            queueWait.record(System.nanoTime() - job.enqueuedAt, TimeUnit.NANOSECONDS);
+            start(job);
+        }
+
+        private void start(Job<?> job) {
+            Runnable send = () -> send(job);
+            if (job.chatId == null) {
+                executor.execute(send);
+                return;
+            }
+
+            CompletableFuture<Void> tail = chatTails.compute(job.chatId, (id, previous) -> previous == null
+                    ? CompletableFuture.runAsync(send, executor)
+                    : previous.thenRunAsync(send, executor));
+
+            // Очередь чата удаляется, когда в ней не осталось запросов
+            tail.whenComplete((result, error) -> chatTails.remove(job.chatId, tail));
+        }
+
+        private <T> void send(Job<T> job) {
+            while (true) {
+                long startedAt = System.nanoTime();
+                try {
+                    T result = job.call.call();
+                    sendLatency.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                    job.result.complete(result);
+                    return;
+                } catch (TelegramApiRequestException e) {
+                    Integer retryAfter = e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+                    if (retryAfter == null || job.attempts >= maxRetries) {
+                        job.result.completeExceptionally(e);
+                        return;
+                    }
+                    // 429: пауза для всего бота; повтор здесь же держит очередь чата до результата
+                    job.attempts++;
+                    long resumeAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter);
+                    pausedUntil.accumulateAndGet(resumeAt, Math::max);
+                    throttled("retry_after");
+                    log.warn("⏳ [{}] Telegram ограничил отправку, пауза {} с (чат {})", botName, retryAfter, job.chatId);
+                    try {
+                        awaitGlobalSlot();
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        job.result.completeExceptionally(new TelegramApiException("Очередь отправки остановлена", e));
+                        return;
+                    }
+                } catch (Exception e) {
+                    job.result.completeExceptionally(e);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Ждет конца паузы от Telegram и слота общего лимита бота
+         */
+        private void awaitGlobalSlot() throws InterruptedException {
+            long pause = pausedUntil.get() - System.nanoTime();
+            if (pause > 0) {
+                TimeUnit.NANOSECONDS.sleep(pause);
+            }
+
+            long wait = globalSlot.reserve(System.nanoTime());
+            if (wait > 0) {
+                throttled("global");
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+
+        private void throttled(String limit) {
+            meterRegistry.counter("telegram.outbound.throttled", "bot", botName, "limit", limit).increment();
+        }
+
+        void stop() {
+            dispatcher.interrupt();
+            List<Job<?>> pending = new ArrayList<>();
+            queue.drainTo(pending);
+            if (!pending.isEmpty()) {
+                log.info("🧹 [{}] Очередь отправки остановлена, не отправлено: {}", botName, pending.size());
+            }
+            pending.forEach(job -> job.result.completeExceptionally(
+                    new TelegramApiException("Очередь отправки остановлена")));
+        }
+    }
+
+    private static final class Job<T> implements Comparable<Job<?>> {
+
+        private final Long chatId;
+        private final Priority priority;
+        private final long sequence;
+        private final TelegramCall<T> call;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private boolean chatSlotReserved;
+        private int attempts;
+
+        Job(Long chatId, Priority priority, long sequence, TelegramCall<T> call) {
+            this.chatId = chatId;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.call = call;
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Token bucket в форме GCRA: темп rate в секунду и всплеск до burst запросов подряд.
+     * reserve выдает следующий слот и возвращает, сколько до него ждать.
+     */
+    private static final class RateSlot {
+
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private long theoreticalArrival = System.nanoTime();
+
+        RateSlot(double rate, int burst) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        }
+
+        synchronized long reserve(long now) {
+            long arrival = Math.max(theoreticalArrival, now);
+            theoreticalArrival = arrival + intervalNanos;
+            return Math.max(0, arrival - toleranceNanos - now);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.server.telegramservice.telegram_bots;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ответ, который дописывается по мере генерации: сначала заглушка, затем
+ * редкие EditMessageText, чтобы не упираться в лимит правок Telegram на чат.
+ * Промежуточные правки идут через очередь бота с низким приоритетом и не ждут ответа;
+ * пока предыдущая правка в очереди (например, пауза после 429), новые пропускаются.
+ */
+@Slf4j
+public class TelegramStreamingReply {
+
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private final AbstractTelegramBot bot;
+    private final Long chatId;
+    private final long editIntervalMs;
+    private final int minCharsPerEdit;
+
+    private final StringBuilder text = new StringBuilder();
+    private Integer messageId;
+    private volatile String shownText = "";
+    private long lastEditAt;
+    private CompletableFuture<Void> pendingEdit = CompletableFuture.completedFuture(null);
+
+    public TelegramStreamingReply(AbstractTelegramBot bot, Long chatId, Duration editInterval, int minCharsPerEdit) {
+        this.bot = bot;
+        this.chatId = chatId;
+        this.editIntervalMs = editInterval.toMillis();
+        this.minCharsPerEdit = minCharsPerEdit;
+    }
+
+    public void start(String placeholder) {
+        try {
+            messageId = bot.send(chatId, new SendMessage(chatId.toString(), placeholder)).getMessageId();
+            shownText = placeholder;
+            lastEditAt = System.currentTimeMillis();
+        } catch (TelegramApiException e) {
+            log.warn("⚠️ Не удалось отправить заглушку ответа в чат {}: {}", chatId, e.getMessage());
+        }
+    }
+
+    /**
+     * Добавляет очередной фрагмент ответа; правка уходит не чаще editInterval
+     */
+    public void append(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        text.append(delta);
+
+        long now = System.currentTimeMillis();
+        boolean enoughTime = now - lastEditAt >= editIntervalMs && pendingEdit.isDone();
+        boolean enoughText = text.length() - shownText.length() >= minCharsPerEdit;
+        if (enoughTime && enoughText && text.length() <= MAX_MESSAGE_LENGTH) {
+            editAsync(text.toString());
+        }
+    }
+
+    /**
+     * Финальная версия ответа; то, что не влезло в одно сообщение, уходит следующими
+     */
+    public void finish(String fullText) {
+        String finalText = fullText != null && !fullText.isBlank() ? fullText : text.toString();
+        String head = finalText.length() > MAX_MESSAGE_LENGTH ? finalText.substring(0, MAX_MESSAGE_LENGTH) : finalText;
+
+        pendingEdit.join();
+        if (messageId == null) {
+            send(head);
+        } else if (!head.equals(shownText)) {
+            edit(head);
+        }
+
+        for (int from = MAX_MESSAGE_LENGTH; from < finalText.length(); from += MAX_MESSAGE_LENGTH) {
+            send(finalText.substring(from, Math.min(finalText.length(), from + MAX_MESSAGE_LENGTH)));
+        }
+    }
+
+    public void fail(String errorText) {
+        pendingEdit.join();
+        if (messageId != null) {
+            edit(errorText);
+        } else {
+            send(errorText);
+        }
+    }
+
+    private void editAsync(String newText) {
+        if (messageId == null || newText.isEmpty()) {
+            return;
+        }
+        lastEditAt = System.currentTimeMillis();
+        pendingEdit = bot.sendAsync(chatId, editRequest(newText), TelegramSendQueue.Priority.LOW)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        shownText = newText;
+                    } else {
+                        log.debug("⏳ Правка сообщения в чате {} отклонена: {}", chatId, error.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Финальную правку нельзя пропустить: ждем ее выполнения очередью, в том числе после 429
+     */
+    private void edit(String newText) {
+        if (messageId == null || newText.isEmpty()) {
+            return;
+        }
+        try {
+            bot.send(chatId, editRequest(newText));
+            shownText = newText;
+        } catch (TelegramApiException e) {
+            log.warn("⚠️ Не удалось обновить сообщение в чате {}: {}", chatId, e.getMessage());
+        } finally {
+            lastEditAt = System.currentTimeMillis();
+        }
+    }
+
+    private EditMessageText editRequest(String newText) {
+        EditMessageText edit = new EditMessageText();
+        edit.setChatId(chatId.toString());
+        edit.setMessageId(messageId);
+        edit.setText(newText);
+        return edit;
+    }
+
+    private void send(String chunk) {
+        try {
+            bot.send(chatId, new SendMessage(chatId.toString(), chunk));
+        } catch (TelegramApiException e) {
+            log.error("❌ Ошибка отправки сообщения в чат {}: {}", chatId, e.getMessage());
+        }
+    }
+}
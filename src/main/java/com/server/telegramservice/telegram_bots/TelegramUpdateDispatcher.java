@@ -0,0 +1,121 @@
+package com.server.telegramservice.telegram_bots;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Выполняет обработку update на виртуальных потоках, чтобы медленный ответ GPT
+ * не задерживал остальных пользователей бота. Update одного чата выполняются строго по очереди.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TelegramUpdateDispatcher {
+
+    private final MeterRegistry meterRegistry;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("tg-update-", 0).factory());
+
+    // bot:chatId -> последняя задача в очереди чата
+    private final Map<String, CompletableFuture<Void>> chatTails = new ConcurrentHashMap<>();
+
+    // bot -> число update, ожидающих обработки
+    private final Map<String, AtomicInteger> queueDepth = new ConcurrentHashMap<>();
+
+    /**
+     * Ставит обработчик в очередь чата. chatId == null - update без чата, выполняется сразу.
+     */
+    public void dispatch(String botName, Long chatId, Runnable handler) {
+        AtomicInteger depth = depth(botName);
+        Timer latency = meterRegistry.timer("telegram.updates.handler.latency", "bot", botName);
+        long enqueuedAt = System.nanoTime();
+
+        // Глубина уменьшается ровно один раз: при запуске задачи или при отказе executor'а
+        AtomicBoolean dequeued = new AtomicBoolean();
+        Runnable task = () -> {
+            if (dequeued.compareAndSet(false, true)) {
+                depth.decrementAndGet();
+            }
+            try {
+                meterRegistry.timer("telegram.updates.queue.wait", "bot", botName)
+                        .record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                latency.record(handler);
+            } catch (Throwable e) {
+                // Ошибка (в том числе Error) не должна обрывать очередь чата
+                log.error("❌ [{}] Необработанная ошибка в обработчике update: {}", botName, e.getMessage(), e);
+            }
+        };
+
+        depth.incrementAndGet();
+        CompletableFuture<Void> tail;
+        String key = chatId != null ? botName + ":" + chatId : null;
+        try {
+            tail = key == null
+                    ? CompletableFuture.runAsync(task, executor)
+                    // Следующая задача чата выполняется, даже если предыдущая завершилась с ошибкой
+                    : chatTails.compute(key, (k, previous) -> previous == null
+                            ? CompletableFuture.runAsync(task, executor)
+                            : previous.exceptionally(error -> null).thenRunAsync(task, executor));
+        } catch (RejectedExecutionException e) {
+            tail = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> registered = tail;
+        registered.whenComplete((result, error) -> {
+            if (error != null) {
+                if (dequeued.compareAndSet(false, true)) {
+                    depth.decrementAndGet();
+                }
+                log.warn("⚠️ [{}] Update не обработан: {}", botName, error.getMessage());
+            }
+            // Очередь чата удаляется, когда в ней не осталось задач
+            if (key != null) {
+                chatTails.remove(key, registered);
+            }
+        });
+    }
+
+    public int queueDepth(String botName) {
+        return depth(botName).get();
+    }
+
+    private AtomicInteger depth(String botName) {
+        return queueDepth.computeIfAbsent(botName, name -> {
+            AtomicInteger counter = new AtomicInteger();
+            Gauge.builder("telegram.updates.queue.depth", counter, AtomicInteger::get)
+                    .tag("bot", name)
+                    .register(meterRegistry);
+            return counter;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("🧹 Останавливаем обработку update, в очередях: {}", queueDepth);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
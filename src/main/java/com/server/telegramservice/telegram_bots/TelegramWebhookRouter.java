@@ -0,0 +1,47 @@
+package com.server.telegramservice.telegram_bots;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Сопоставляет путь вебхука с ботом. Путь строится из SHA-256 токена,
+ * чтобы сам токен не попадал в URL и логи балансировщика.
+ */
+@Slf4j
+@Component
+public class TelegramWebhookRouter {
+
+    private final Map<String, AbstractTelegramBot> botsByPath;
+
+    public TelegramWebhookRouter(List<AbstractTelegramBot> bots) {
+        this.botsByPath = bots.stream()
+                .collect(Collectors.toMap(bot -> pathFor(bot.getBotToken()), Function.identity()));
+    }
+
+    public Optional<AbstractTelegramBot> find(String path) {
+        return Optional.ofNullable(botsByPath.get(path));
+    }
+
+    public String pathFor(AbstractTelegramBot bot) {
+        return pathFor(bot.getBotToken());
+    }
+
+    private static String pathFor(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
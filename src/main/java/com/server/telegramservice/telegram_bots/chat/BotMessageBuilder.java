@@ -9,5 +9,11 @@ public interface BotMessageBuilder {
     String getHelpContent();
     InlineKeyboardMarkup createStyleKeyboard();
     InlineKeyboardMarkup createFormatKeyboard();
-    InlineKeyboardButton createInlineButton(String text, String callbackData);
+
+    default InlineKeyboardButton createInlineButton(String text, String callbackData) {
+        InlineKeyboardButton button = new InlineKeyboardButton();
+        button.setText(text);
+        button.setCallbackData(callbackData);
+        return button;
+    }
 }
\ No newline at end of file
@@ -10,12 +10,16 @@ import com.server.telegramservice.entity.repository.FileRepository;
 import com.server.telegramservice.entity.repository.UserRepository;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
@@ -25,21 +29,37 @@ public class ChatPersistenceService {
     private final ChatSessionRepository chatSessionRepository;
     private final MessageRepository messageRepository;
     private final FileRepository fileRepository;
+    private final MessageWriteBehindQueue writeBehindQueue;
+    private final UserCache userCache;
+    private final ConversationHistoryBuffer historyBuffer;
 
+    // true - сообщения пишутся пачками в фоне, false - сразу в БД
+    @Value("${chat.persistence.write-behind:true}")
+    private boolean writeBehind;
+
+    /**
+     * Пользователь из кэша без обращения к БД; UPDATE только при смене имени,
+     * создание через upsert, чтобы первые параллельные апдейты не конфликтовали
+     */
     public User getOrCreateUser(Long telegramId, String username) {
-        return userRepository.findByTelegramId(telegramId)
-                .map(user -> {
-                    if (!user.getUsername().equals(username)) {
-                        user.setUsername(username); // обновим имя
-                    }
-                    return userRepository.save(user);
-                })
+        Optional<User> cached = userCache.find(telegramId);
+        User user = cached
+                .or(() -> userRepository.findByTelegramId(telegramId))
                 .orElseGet(() -> {
-                    User user = new User();
-                    user.setTelegramId(telegramId);
-                    user.setUsername(username);
-                    return userRepository.save(user);
+                    userRepository.insertIfAbsent(telegramId, username);
+                    return userRepository.findByTelegramId(telegramId).orElseThrow();
                 });
+
+        // null - имя неизвестно (например, вызов из Kafka), не затираем сохраненное
+        boolean renamed = username != null && !Objects.equals(user.getUsername(), username);
+        if (renamed) {
+            userRepository.updateUsername(telegramId, username); // обновим имя
+            user.setUsername(username);
+        }
+        if (cached.isEmpty() || renamed) {
+            userCache.put(user);
+        }
+        return user;
     }
 
     public ChatSession getOrCreateActiveSession(User user) {
@@ -52,12 +72,23 @@ public class ChatPersistenceService {
     }
 
     public void saveMessage(ChatSession session, Sender sender, String text, Bot botType, MessageType messageType) {
+        // Одна метка времени в буфере истории и в БД: по ней отсчитывается summarizedUntil
+        LocalDateTime createdAt = LocalDateTime.now();
+        historyBuffer.append(session, sender, text, createdAt);
+
+        // Очередь заполнена - пишем синхронно, это и есть backpressure
+        if (writeBehind && writeBehindQueue.offer(session, sender, text, botType, messageType, createdAt)) {
+            return;
+        }
+
         Message message = new Message();
         message.setSession(session);
         message.setSender(sender);
         message.setContent(text);
         message.setBotType(botType);
         message.setMessageType(messageType);
+        message.setCreatedAt(createdAt);
+        message.setUpdatedAt(createdAt);
         messageRepository.save(message);
     }
 
@@ -70,23 +101,34 @@ public class ChatPersistenceService {
         message.setBotType(botType);
         message.setMessageType(messageType);
         message.setContent(text);
-        message.setContent(text);
-        message = messageRepository.save(message);
 
         File file = new File();
         file.setFilename(filename);
         file.setFileType(fileType);
         file.setS3Url(s3Url);
         file.setMessage(message);
-        fileRepository.save(file);
 
+        // Файл сохраняется каскадом вместе с сообщением, одним flush
         message.getFiles().add(file);
         messageRepository.save(message);
+        historyBuffer.append(session, sender, text, message.getCreatedAt());
     }
+
+    /**
+     * Последние n сообщений сессии в хронологическом порядке из буфера истории;
+     * SQL выполняется только при холодном старте сессии
+     */
     public List<Message> getLastNMessages(ChatSession session, int n) {
-        return messageRepository.findRecentMessagesBySession(session, PageRequest.of(0, n))
-                .stream()
+        return historyBuffer.recent(session, n, () -> loadRecentMessages(session, historyBuffer.capacity()));
+    }
+
+    private List<Message> loadRecentMessages(ChatSession session, int n) {
+        List<Message> recent = new ArrayList<>(messageRepository.findRecentMessagesBySession(session, PageRequest.of(0, n)));
+        // Сообщения из write-behind очереди еще не в БД, но уже часть диалога
+        recent.addAll(writeBehindQueue.pendingMessages(session));
+        return recent.stream()
                 .sorted(Comparator.comparing(Message::getCreatedAt))
+                .skip(Math.max(0, recent.size() - n))
                 .toList();
     }
 
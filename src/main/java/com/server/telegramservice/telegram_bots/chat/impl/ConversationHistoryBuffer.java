@@ -0,0 +1,232 @@
+package com.server.telegramservice.telegram_bots.chat.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.server.telegramservice.configuration.VersionedSmileCodec;
+import com.server.telegramservice.entity.enums.Sender;
+import com.server.telegramservice.entity.telegram.ChatSession;
+import com.server.telegramservice.entity.telegram.Message;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Последние сообщения каждой сессии для контекста LLM: список в Redis, который переживает
+ * рестарт и общий для всех инстансов, и кольцевой буфер в памяти на случай недоступности Redis.
+ * БД читается только при холодном старте сессии.
+ */
+@Slf4j
+@Component
+public class ConversationHistoryBuffer {
+
+    private static final String REDIS_KEY_PREFIX = "chat:history:";
+
+    // Дописывает сообщение в прогретый список, обрезает его до емкости и продлевает TTL
+    private static final RedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end "
+                    + "redis.call('rpush', KEYS[1], ARGV[1]) "
+                    + "redis.call('ltrim', KEYS[1], -tonumber(ARGV[2]), -1) "
+                    + "redis.call('pexpire', KEYS[1], ARGV[3]) "
+                    + "return 1",
+            Long.class);
+
+    // Атомарно заменяет список целиком: ARGV[1] - TTL, дальше сообщения
+    private static final RedisScript<Long> REPLACE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('del', KEYS[1]) "
+                    + "redis.call('rpush', KEYS[1], unpack(ARGV, 2)) "
+                    + "redis.call('pexpire', KEYS[1], ARGV[1]) "
+                    + "return 1",
+            Long.class);
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final VersionedSmileCodec<Entry> codec;
+    private final MeterRegistry meterRegistry;
+    private final Cache<Long, Ring> localBuffers;
+    private final int capacity;
+    private final Duration ttl;
+    private final boolean redisEnabled;
+
+    public ConversationHistoryBuffer(RedisTemplate<String, byte[]> redisTemplate,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${chat.history.capacity:30}") int capacity,
+                                     @Value("${chat.history.ttl:24h}") Duration ttl,
+                                     @Value("${chat.history.max-sessions:20000}") long maxSessions,
+                                     @Value("${chat.history.redis-enabled:true}") boolean redisEnabled) {
+        this.redisTemplate = redisTemplate;
+        this.codec = new VersionedSmileCodec<>(Entry.class, "chat_history_entry", meterRegistry);
+        this.meterRegistry = meterRegistry;
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.redisEnabled = redisEnabled;
+        this.localBuffers = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(ttl)
+                .build();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Дописывает сообщение в буферы, которые уже прогреты; холодный буфер
+     * не трогаем, иначе в нем окажется только хвост без предыдущей истории
+     */
+    public void append(ChatSession session, Sender sender, String content, LocalDateTime createdAt) {
+        Entry entry = new Entry(sender, content, createdAt);
+
+        Ring local = localBuffers.getIfPresent(session.getId());
+        if (local != null) {
+            local.add(entry);
+        }
+
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            redisTemplate.execute(APPEND_SCRIPT, List.of(REDIS_KEY_PREFIX + session.getId()),
+                    codec.serialize(entry), bytes(capacity), bytes(ttl.toMillis()));
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось дописать историю сессии {} в Redis: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Последние n сообщений в хронологическом порядке: Redis, затем БД.
+     * Буфер в памяти отвечает, только если Redis выключен или недоступен.
+     */
+    public List<Message> recent(ChatSession session, int n, Supplier<List<Message>> coldLoader) {
+        if (redisEnabled) {
+            try {
+                List<Entry> shared = readShared(session.getId());
+                if (shared != null) {
+                    record("redis");
+                    Ring ring = new Ring(capacity);
+                    shared.forEach(ring::add);
+                    localBuffers.put(session.getId(), ring);
+                    return toMessages(ring.last(n), session);
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ Redis недоступен для истории сессии {}: {}", session.getId(), e.getMessage());
+                Ring local = localBuffers.getIfPresent(session.getId());
+                if (local != null) {
+                    record("local");
+                    return toMessages(local.last(n), session);
+                }
+            }
+        } else {
+            Ring local = localBuffers.getIfPresent(session.getId());
+            if (local != null) {
+                record("local");
+                return toMessages(local.last(n), session);
+            }
+        }
+
+        record("db");
+        List<Message> loaded = coldLoader.get();
+        Ring ring = new Ring(capacity);
+        loaded.forEach(message -> ring.add(new Entry(message.getSender(), message.getContent(), message.getCreatedAt())));
+        localBuffers.put(session.getId(), ring);
+        writeShared(session.getId(), ring.last(capacity));
+        return loaded.subList(Math.max(0, loaded.size() - n), loaded.size());
+    }
+
+    /**
+     * Список сессии из Redis; null - списка нет или он в старом формате
+     */
+    private List<Entry> readShared(Long sessionId) {
+        List<byte[]> values = redisTemplate.opsForList().range(REDIS_KEY_PREFIX + sessionId, -capacity, -1);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            Entry entry = codec.deserialize(value);
+            if (entry == null) {
+                // Список в старом формате: перечитаем из БД и перезапишем
+                return null;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private void writeShared(Long sessionId, List<Entry> entries) {
+        if (!redisEnabled || entries.isEmpty()) {
+            return;
+        }
+        try {
+            Object[] args = new Object[entries.size() + 1];
+            args[0] = bytes(ttl.toMillis());
+            for (int i = 0; i < entries.size(); i++) {
+                args[i + 1] = codec.serialize(entries.get(i));
+            }
+            redisTemplate.execute(REPLACE_SCRIPT, List.of(REDIS_KEY_PREFIX + sessionId), args);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось прогреть историю сессии {} в Redis: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private static byte[] bytes(long number) {
+        return String.valueOf(number).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<Message> toMessages(List<Entry> entries, ChatSession session) {
+        List<Message> messages = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Message message = new Message();
+            message.setSession(session);
+            message.setSender(entry.sender());
+            message.setContent(entry.content());
+            message.setCreatedAt(entry.createdAt());
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private void record(String source) {
+        meterRegistry.counter("chat.history.reads", "source", source).increment();
+    }
+
+    record Entry(Sender sender, String content, LocalDateTime createdAt) {
+    }
+
+    /**
+     * Кольцевой буфер фиксированной емкости: старые сообщения вытесняются новыми
+     */
+    private static final class Ring {
+
+        private final Deque<Entry> entries;
+        private final int capacity;
+
+        Ring(int capacity) {
+            this.entries = new ArrayDeque<>(capacity);
+            this.capacity = capacity;
+        }
+
+        synchronized void add(Entry entry) {
+            if (entries.size() == capacity) {
+                entries.removeFirst();
+            }
+            entries.addLast(entry);
+        }
+
+        synchronized List<Entry> last(int n) {
+            List<Entry> all = new ArrayList<>(entries);
+            return all.subList(Math.max(0, all.size() - n), all.size());
+        }
+    }
+}
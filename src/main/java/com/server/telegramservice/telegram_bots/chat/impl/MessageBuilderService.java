@@ -56,7 +56,7 @@ public class MessageBuilderService {
         message.setChatId(chatId);
         message.setText("🎭 Выберите стиль или введите свой:");
         message.setReplyMarkup(getBuilder(botType).createStyleKeyboard());
-        executeMessage(bot, message);
+        executeMessage(bot, chatId, message);
     }
 
     public void sendFormatSelection(AbstractTelegramBot bot, Long chatId) {
@@ -64,7 +64,7 @@ public class MessageBuilderService {
         message.setChatId(chatId);
         message.setText("📐 Выберите формат:");
         message.setReplyMarkup(BaseMessageBuilder.createBaseFormatKeyboard());
-        executeMessage(bot, message);
+        executeMessage(bot, chatId, message);
     }
     public void sendTextMessage(AbstractTelegramBot bot, Long chatId, String text) {
         SendMessage message = new SendMessage();
@@ -72,7 +72,7 @@ public class MessageBuilderService {
         message.setText(text);
 
         try {
-            bot.execute(message);
+            bot.send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки сообщения: {}", e.getMessage());
         }
@@ -87,9 +87,9 @@ public class MessageBuilderService {
             case CREATED, CANCELED, TIMEOUT, UNKNOWN -> null;
         };
     }
-    private void executeMessage(AbstractTelegramBot bot, SendMessage message) {
+    private void executeMessage(AbstractTelegramBot bot, Long chatId, SendMessage message) {
         try {
-            bot.execute(message);
+            bot.send(chatId, message);
         } catch (TelegramApiException e) {
             log.error("❌ Ошибка отправки сообщения: {}", e.getMessage(), e);
         }
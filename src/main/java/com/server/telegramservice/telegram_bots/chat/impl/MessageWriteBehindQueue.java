@@ -0,0 +1,310 @@
+package com.server.telegramservice.telegram_bots.chat.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.server.telegramservice.entity.enums.Bot;
+import com.server.telegramservice.entity.enums.MessageType;
+import com.server.telegramservice.entity.enums.Sender;
+import com.server.telegramservice.entity.repository.ChatSessionRepository;
+import com.server.telegramservice.entity.repository.MessageRepository;
+import com.server.telegramservice.entity.telegram.ChatSession;
+import com.server.telegramservice.entity.telegram.Message;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind для сообщений чата: saveMessage кладет сообщение в ограниченную очередь,
+ * фоновый поток пишет их пачками (hibernate.jdbc.batch_size) по размеру или по таймеру.
+ * Что не удалось записать при остановке, сохраняется в spill-файл и дописывается при старте.
+ * Пачку, которую БД отвергла не из-за недоступности, пишем по одному сообщению; сообщение,
+ * которое не записывается и само по себе, откладываем в rejected-файл, чтобы оно не блокировало очередь.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageWriteBehindQueue {
+
+    private final MessageRepository messageRepository;
+    private final ChatSessionRepository chatSessionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${chat.persistence.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chat.persistence.batch-size:50}")
+    private int batchSize;
+
+    @Value("${chat.persistence.flush-interval:200ms}")
+    private Duration flushInterval;
+
+    @Value("${chat.persistence.spill-file:./data/pending-messages.jsonl}")
+    private Path spillFile;
+
+    @Value("${chat.persistence.rejected-file:./data/rejected-messages.jsonl}")
+    private Path rejectedFile;
+
+    private BlockingQueue<PendingMessage> queue;
+    private ScheduledExecutorService writer;
+
+    // Пачка, которая сейчас пишется: ее сообщения еще не видны в БД
+    private volatile List<PendingMessage> inFlight = List.of();
+
+    @PostConstruct
+    public void start() {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("message-writer-"));
+        long intervalMs = flushInterval.toMillis();
+        writer.scheduleWithFixedDelay(this::flushSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * false - очередь заполнена, вызывающий сохраняет сообщение синхронно
+     */
+    public boolean offer(ChatSession session, Sender sender, String text, Bot botType, MessageType messageType,
+                         LocalDateTime createdAt) {
+        boolean accepted = queue.offer(new PendingMessage(session.getId(), sender, text, botType, messageType,
+                createdAt));
+        if (accepted && queue.size() >= batchSize && !writer.isShutdown()) {
+            try {
+                writer.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                // останавливаемся: очередь допишет shutdown()
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Сообщения сессии, которые еще не записаны в БД (для сборки контекста диалога)
+     */
+    public List<Message> pendingMessages(ChatSession session) {
+        List<Message> pending = new ArrayList<>();
+        collect(inFlight, session, pending);
+        collect(queue, session, pending);
+        return pending;
+    }
+
+    private void collect(Collection<PendingMessage> source, ChatSession session, List<Message> target) {
+        for (PendingMessage pending : source) {
+            if (Objects.equals(pending.sessionId(), session.getId())) {
+                target.add(pending.toMessage(session));
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            while (flushBatch()) {
+                // пишем, пока в очереди набирается полная пачка
+            }
+        } catch (Exception e) {
+            log.error("❌ Ошибка записи пачки сообщений, повторим позже: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Пишет одну пачку; true - в очереди осталась еще как минимум полная пачка
+     */
+    private boolean flushBatch() {
+        if (inFlight.isEmpty()) {
+            List<PendingMessage> batch = new ArrayList<>(batchSize);
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                return false;
+            }
+            inFlight = batch;
+        }
+
+        // inFlight читают другие потоки, поэтому записанные сообщения убираем из копии
+        List<PendingMessage> remaining = new ArrayList<>(inFlight);
+        int size = remaining.size();
+        try {
+            write(remaining);
+        } finally {
+            inFlight = remaining.isEmpty() ? List.of() : List.copyOf(remaining);
+        }
+
+        log.debug("💾 Записана пачка из {} сообщений", size);
+        return queue.size() >= batchSize;
+    }
+
+    /**
+     * Пишет сообщения и убирает из списка записанные и отвергнутые. Если БД недоступна,
+     * исключение пробрасывается, а в списке остаются незаписанные сообщения.
+     */
+    private void write(List<PendingMessage> batch) {
+        try {
+            save(batch);
+            batch.clear();
+        } catch (DataAccessException e) {
+            if (isTransient(e)) {
+                throw e;
+            }
+            log.warn("⚠️ БД отвергла пачку из {} сообщений, пишем по одному: {}", batch.size(), e.getMessage());
+            writeOneByOne(batch);
+        }
+    }
+
+    private void writeOneByOne(List<PendingMessage> batch) {
+        Iterator<PendingMessage> iterator = batch.iterator();
+        while (iterator.hasNext()) {
+            PendingMessage pending = iterator.next();
+            try {
+                save(List.of(pending));
+            } catch (DataAccessException e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                log.error("❌ Сообщение сессии {} не записывается в БД, откладываем в {}: {}",
+                        pending.sessionId(), rejectedFile, e.getMessage());
+                append(rejectedFile, List.of(pending));
+            }
+            iterator.remove();
+        }
+    }
+
+    private void save(List<PendingMessage> batch) {
+        transactionTemplate.executeWithoutResult(status -> messageRepository.saveAll(
+                batch.stream()
+                        .map(pending -> pending.toMessage(chatSessionRepository.getReferenceById(pending.sessionId())))
+                        .toList()));
+    }
+
+    // БД недоступна или перегружена - пачку повторим целиком позже
+    private static boolean isTransient(DataAccessException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            while (!inFlight.isEmpty() || !queue.isEmpty()) {
+                flushBatch();
+            }
+        } catch (Exception e) {
+            log.error("❌ БД недоступна при остановке, сохраняем сообщения в {}: {}", spillFile, e.getMessage());
+            spill();
+        }
+    }
+
+    private void spill() {
+        List<PendingMessage> remaining = new ArrayList<>(inFlight);
+        queue.drainTo(remaining);
+        if (append(spillFile, remaining)) {
+            log.warn("💾 {} сообщений сохранено в {}", remaining.size(), spillFile);
+        }
+    }
+
+    private boolean append(Path file, List<PendingMessage> messages) {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (PendingMessage pending : messages) {
+                    out.write(objectMapper.writeValueAsString(pending));
+                    out.newLine();
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("❌ Потеряно {} сообщений: не удалось записать {}", messages.size(), file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Дописывает в БД сообщения, сохраненные в spill-файл при прошлой остановке
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replaySpilled() {
+        if (!Files.exists(spillFile)) {
+            return;
+        }
+        List<PendingMessage> spilled = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(spillFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    spilled.add(objectMapper.readValue(line, PendingMessage.class));
+                }
+            }
+        } catch (IOException e) {
+            log.error("❌ Не удалось прочитать {}: {}", spillFile, e.getMessage(), e);
+            return;
+        }
+
+        int total = spilled.size();
+        try {
+            write(spilled);
+            Files.delete(spillFile);
+            log.info("♻️ Восстановлено {} сообщений из {}", total, spillFile);
+        } catch (Exception e) {
+            log.error("❌ Не удалось восстановить сообщения из {}: {}", spillFile, e.getMessage(), e);
+            // В файле оставляем только незаписанное, чтобы следующий старт не продублировал сообщения
+            if (spilled.size() < total) {
+                try {
+                    Files.delete(spillFile);
+                    append(spillFile, spilled);
+                } catch (IOException rewriteError) {
+                    log.error("❌ Не удалось переписать {}: {}", spillFile, rewriteError.getMessage());
+                }
+            }
+        }
+    }
+
+    record PendingMessage(Long sessionId, Sender sender, String content, Bot botType,
+                          MessageType messageType, LocalDateTime createdAt) {
+
+        Message toMessage(ChatSession session) {
+            Message message = new Message();
+            message.setSession(session);
+            message.setSender(sender);
+            message.setContent(content);
+            message.setBotType(botType);
+            message.setMessageType(messageType);
+            message.setCreatedAt(createdAt);
+            message.setUpdatedAt(createdAt);
+            return message;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.server.telegramservice.telegram_bots.chat.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.server.telegramservice.configuration.VersionedSmileCodec;
+import com.server.telegramservice.entity.telegram.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Кэш пользователей по telegramId: локальный Caffeine и общий для инстансов Redis.
+ * Хранит только поля строки users, сессии пользователя сюда не попадают.
+ */
+@Slf4j
+@Component
+public class UserCache {
+
+    private static final String REDIS_KEY_PREFIX = "chat:user:";
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final VersionedSmileCodec<CachedUser> codec;
+    private final MeterRegistry meterRegistry;
+    private final Cache<Long, CachedUser> localCache;
+    private final Duration ttl;
+    private final boolean redisEnabled;
+
+    public UserCache(RedisTemplate<String, byte[]> redisTemplate,
+                     MeterRegistry meterRegistry,
+                     @Value("${chat.user-cache.ttl:1h}") Duration ttl,
+                     @Value("${chat.user-cache.max-size:50000}") long maxSize,
+                     @Value("${chat.user-cache.redis-enabled:true}") boolean redisEnabled) {
+        this.redisTemplate = redisTemplate;
+        this.codec = new VersionedSmileCodec<>(CachedUser.class, "chat_user", meterRegistry);
+        this.meterRegistry = meterRegistry;
+        this.ttl = ttl;
+        this.redisEnabled = redisEnabled;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "chat.users");
+    }
+
+    /**
+     * Пользователь из кэша (detached, без загрузки сессий); пусто - нужен запрос в БД
+     */
+    public Optional<User> find(Long telegramId) {
+        CachedUser local = localCache.getIfPresent(telegramId);
+        if (local != null) {
+            record("local");
+            return Optional.of(local.toUser());
+        }
+
+        CachedUser shared = readShared(telegramId);
+        if (shared != null) {
+            record("redis");
+            localCache.put(telegramId, shared);
+            return Optional.of(shared.toUser());
+        }
+
+        record("miss");
+        return Optional.empty();
+    }
+
+    public void put(User user) {
+        CachedUser cached = CachedUser.of(user);
+        localCache.put(cached.telegramId(), cached);
+        writeShared(cached);
+    }
+
+    private CachedUser readShared(Long telegramId) {
+        if (!redisEnabled) {
+            return null;
+        }
+        try {
+            return codec.deserialize(redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + telegramId));
+        } catch (Exception e) {
+            log.warn("⚠️ Redis недоступен для кэша пользователей: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeShared(CachedUser cached) {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().set(REDIS_KEY_PREFIX + cached.telegramId(),
+                    codec.serialize(cached), ttl);
+        } catch (Exception e) {
+            log.warn("⚠️ Не удалось сохранить пользователя {} в Redis: {}", cached.telegramId(), e.getMessage());
+        }
+    }
+
+    private void record(String source) {
+        meterRegistry.counter("chat.users.lookups", "source", source).increment();
+    }
+
+    record CachedUser(Long id, Long telegramId, String username, LocalDateTime createdAt) {
+
+        static CachedUser of(User user) {
+            return new CachedUser(user.getId(), user.getTelegramId(), user.getUsername(), user.getCreatedAt());
+        }
+
+        User toUser() {
+            User user = new User();
+            user.setId(id);
+            user.setTelegramId(telegramId);
+            user.setUsername(username);
+            user.setCreatedAt(createdAt);
+            return user;
+        }
+    }
+}
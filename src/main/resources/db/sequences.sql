@@ -0,0 +1,5 @@
+-- Шаг sequence должен совпадать с allocationSize сущностей (Message, File): Hibernate берет
+-- из sequence сразу 50 id. ddl-auto: update не меняет существующие sequence, поэтому
+-- выравниваем их здесь до старта Hibernate. На новой БД sequence еще нет - Hibernate создаст их сам.
+ALTER SEQUENCE IF EXISTS messages_id_seq INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS files_id_seq INCREMENT BY 50;
@@ -0,0 +1,51 @@
+package com.server.telegramservice.kafka;
+
+import com.server.telegramservice.service.S3Service;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileDeleteConsumerTest {
+
+    private static final String TOPIC = FileDeleteProducer.TOPIC;
+
+    private final S3Service s3Service = mock(S3Service.class);
+    private final FileDeleteProducer producer = mock(FileDeleteProducer.class);
+    private final FileDeleteConsumer consumer = new FileDeleteConsumer(s3Service, producer);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void passesEveryEventWithItsOwnIdAndKeepsIdOnRedelivery() {
+        ReflectionTestUtils.setField(consumer, "maxAttempts", 5);
+        when(s3Service.deleteFiles(anyMap())).thenReturn(Map.of());
+
+        ConsumerRecord<String, String> withHeader = new ConsumerRecord<>(TOPIC, 0, 10, null, "a.png");
+        withHeader.headers().add(FileDeleteProducer.EVENT_ID_HEADER, "event-1".getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<String, String> legacy = new ConsumerRecord<>(TOPIC, 1, 20, null, "a.png");
+
+        consumer.consume(List.of(withHeader, legacy));
+        // Та же пачка после сбоя коммита
+        consumer.consume(List.of(withHeader, legacy));
+
+        ArgumentCaptor<Map<String, String>> batches = ArgumentCaptor.forClass(Map.class);
+        verify(s3Service, times(2)).deleteFiles(batches.capture());
+        Map<String, String> expected = Map.of("event-1", "a.png", TOPIC + "-1@20", "a.png");
+        assertThat(batches.getAllValues()).containsExactly(expected, expected);
+        verify(producer, never()).sendDeleteRetry(anyString(), anyString(), anyInt());
+    }
+}
@@ -0,0 +1,114 @@
+package com.server.telegramservice.service;
+
+import com.server.telegramservice.entity.repository.StoredObjectRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3ServiceDeleteTest {
+
+    private static final String KEY = "images/shared.png";
+
+    private final StoredObjectRepository repository = mock(StoredObjectRepository.class);
+    private final S3Client s3Client = mock(S3Client.class);
+    private final List<String> deletedKeys = new ArrayList<>();
+
+    // Индекс дедупликации в памяти с той же семантикой, что и SQL в StoredObjectRepository
+    private final Map<String, Integer> refCounts = new HashMap<>();
+    private final Set<String> releasedEvents = new HashSet<>();
+
+    private S3Service s3Service;
+
+    @BeforeEach
+    void setUp() {
+        s3Service = new S3Service(repository, mock(RestTemplate.class));
+        ReflectionTestUtils.setField(s3Service, "s3Client", s3Client);
+        ReflectionTestUtils.setField(s3Service, "bucket", "bucket");
+        ReflectionTestUtils.setField(s3Service, "dedupEnabled", true);
+
+        when(repository.releaseOnce(anyString(), anyString())).thenAnswer(invocation -> {
+            String eventId = invocation.getArgument(0);
+            String key = invocation.getArgument(1);
+            if (!releasedEvents.add(eventId) || !refCounts.containsKey(key)) {
+                return null;
+            }
+            return refCounts.merge(key, -1, Integer::sum);
+        });
+        when(repository.findRefCount(anyString())).thenAnswer(invocation -> refCounts.get(invocation.<String>getArgument(0)));
+        when(repository.deleteUnreferenced(anyString())).thenAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            Integer count = refCounts.get(key);
+            if (count != null && count <= 0) {
+                refCounts.remove(key);
+                return 1;
+            }
+            return 0;
+        });
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = invocation.getArgument(0);
+            request.delete().objects().stream().map(ObjectIdentifier::key).forEach(deletedKeys::add);
+            return DeleteObjectsResponse.builder().build();
+        });
+    }
+
+    @Test
+    void redeliveredEventReleasesReferenceOnlyOnce() {
+        refCounts.put(KEY, 2);
+
+        s3Service.deleteFiles(Map.of("event-1", KEY));
+        s3Service.deleteFiles(Map.of("event-1", KEY));
+
+        assertThat(refCounts).containsEntry(KEY, 1);
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+
+        s3Service.deleteFiles(Map.of("event-2", KEY));
+
+        assertThat(refCounts).doesNotContainKey(KEY);
+        assertThat(deletedKeys).containsExactly(KEY);
+    }
+
+    @Test
+    void distinctEventsForSameKeyInOneBatchReleaseOneReferenceEach() {
+        refCounts.put(KEY, 2);
+        Map<String, String> batch = new LinkedHashMap<>();
+        batch.put("event-1", KEY);
+        batch.put("event-2", KEY);
+
+        Map<String, String> failures = s3Service.deleteFiles(batch);
+
+        assertThat(failures).isEmpty();
+        assertThat(refCounts).doesNotContainKey(KEY);
+        assertThat(deletedKeys).containsExactly(KEY);
+    }
+
+    @Test
+    void redeliveryAfterFailedDeleteStillRemovesUnreferencedObject() {
+        // Первая доставка сняла последнюю ссылку и строку индекса, но S3 объект не удалил
+        releasedEvents.add("event-1");
+
+        s3Service.deleteFiles(Map.of("event-1", KEY));
+
+        assertThat(deletedKeys).containsExactly(KEY);
+    }
+}
@@ -0,0 +1,104 @@
+package com.server.telegramservice.telegram_bots;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TelegramSendQueueTest {
+
+    private static final String BOT = "test_bot";
+    private static final long CHAT = 42L;
+
+    // Лимиты высокие, чтобы тесты проверяли порядок, а не ожидание слотов
+    private final TelegramSendQueue queue = new TelegramSendQueue(new SimpleMeterRegistry(),
+            1000, 100, 1000, 100, 3, Duration.ofMinutes(1));
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void sendsRequestsOfOneChatInSubmissionOrder() throws Exception {
+        List<Integer> sent = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            int number = i;
+            results.add(queue.submit(BOT, CHAT, TelegramSendQueue.Priority.NORMAL, () -> {
+                // Ранние запросы медленнее, чтобы поздние могли их обогнать при параллельной отправке
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20 - number));
+                sent.add(number);
+                return number;
+            }));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(sent).containsExactlyElementsOf(List.of(
+                0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19));
+    }
+
+    @Test
+    void retriesTooManyRequestsBeforeNextRequestOfSameChat() throws Exception {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        AtomicInteger attempts = new AtomicInteger();
+        TelegramApiRequestException tooManyRequests = tooManyRequests(1);
+
+        CompletableFuture<String> first = queue.submit(BOT, CHAT, TelegramSendQueue.Priority.NORMAL, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                sent.add("first-429");
+                throw tooManyRequests;
+            }
+            sent.add("first");
+            return "first";
+        });
+        CompletableFuture<String> second = queue.submit(BOT, CHAT, TelegramSendQueue.Priority.NORMAL, () -> {
+            sent.add("second");
+            return "second";
+        });
+
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(sent).containsExactly("first-429", "first", "second");
+    }
+
+    @Test
+    void failsRequestAfterMaxRetries() {
+        TelegramApiRequestException tooManyRequests = tooManyRequests(0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = queue.submit(BOT, CHAT, TelegramSendQueue.Priority.NORMAL, () -> {
+            attempts.incrementAndGet();
+            throw tooManyRequests;
+        });
+
+        assertThatThrownBy(() -> TelegramSendQueue.await(result)).isSameAs(tooManyRequests);
+        // первая попытка и max-retries повторов
+        assertThat(attempts).hasValue(4);
+    }
+
+    private static TelegramApiRequestException tooManyRequests(int retryAfter) {
+        ResponseParameters parameters = mock(ResponseParameters.class);
+        when(parameters.getRetryAfter()).thenReturn(retryAfter);
+        TelegramApiRequestException exception = mock(TelegramApiRequestException.class);
+        when(exception.getParameters()).thenReturn(parameters);
+        when(exception.getErrorCode()).thenReturn(429);
+        return exception;
+    }
+}
@@ -0,0 +1,136 @@
+package com.server.telegramservice.telegram_bots.chat.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.server.telegramservice.entity.enums.Bot;
+import com.server.telegramservice.entity.enums.MessageType;
+import com.server.telegramservice.entity.enums.Sender;
+import com.server.telegramservice.entity.repository.ChatSessionRepository;
+import com.server.telegramservice.entity.repository.MessageRepository;
+import com.server.telegramservice.entity.telegram.ChatSession;
+import com.server.telegramservice.entity.telegram.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageWriteBehindQueueTest {
+
+    private static final String POISON = "poison";
+
+    @TempDir
+    Path dataDir;
+
+    private final MessageRepository messageRepository = mock(MessageRepository.class);
+    private final ChatSessionRepository chatSessionRepository = mock(ChatSessionRepository.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<String> saved = new ArrayList<>();
+    private final ChatSession session = new ChatSession();
+
+    private MessageWriteBehindQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        session.setId(7L);
+        when(chatSessionRepository.getReferenceById(anyLong())).thenReturn(session);
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        queue = new MessageWriteBehindQueue(messageRepository, chatSessionRepository, transactionTemplate, objectMapper);
+        ReflectionTestUtils.setField(queue, "queueCapacity", 100);
+        ReflectionTestUtils.setField(queue, "batchSize", 10);
+        // Таймер не должен мешать: пачки пишем из теста
+        ReflectionTestUtils.setField(queue, "flushInterval", Duration.ofHours(1));
+        ReflectionTestUtils.setField(queue, "spillFile", dataDir.resolve("pending.jsonl"));
+        ReflectionTestUtils.setField(queue, "rejectedFile", dataDir.resolve("rejected.jsonl"));
+        queue.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void writesBatchRowByRowAndRejectsPoisonMessage() throws Exception {
+        // БД отвергает любую пачку с «ядовитым» сообщением
+        doAnswer(invocation -> {
+            List<Message> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(message -> POISON.equals(message.getContent()))) {
+                throw new DataIntegrityViolationException("value too long");
+            }
+            batch.forEach(message -> saved.add(message.getContent()));
+            return batch;
+        }).when(messageRepository).saveAll(any());
+
+        offer("first");
+        offer(POISON);
+        offer("third");
+        flush();
+
+        assertThat(saved).containsExactly("first", "third");
+        assertThat(queue.pendingMessages(session)).isEmpty();
+        List<String> rejected = Files.readAllLines(dataDir.resolve("rejected.jsonl"));
+        assertThat(rejected).hasSize(1);
+        assertThat(rejected.get(0)).contains(POISON);
+    }
+
+    @Test
+    void keepsBatchPendingWhileDatabaseIsDownAndSpillsItOnShutdown() throws Exception {
+        AtomicBoolean databaseDown = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            if (databaseDown.get()) {
+                throw new DataAccessResourceFailureException("connection refused");
+            }
+            List<Message> batch = invocation.getArgument(0);
+            batch.forEach(message -> saved.add(message.getContent()));
+            return batch;
+        }).when(messageRepository).saveAll(any());
+
+        offer("first");
+        offer("second");
+        flush();
+
+        assertThat(saved).isEmpty();
+        assertThat(queue.pendingMessages(session)).extracting(Message::getContent).containsExactly("first", "second");
+        assertThat(dataDir.resolve("rejected.jsonl")).doesNotExist();
+
+        queue.shutdown();
+
+        List<String> spilled = Files.readAllLines(dataDir.resolve("pending.jsonl"));
+        assertThat(spilled).hasSize(2);
+
+        // После рестарта сообщения дописываются из spill-файла
+        databaseDown.set(false);
+        queue.replaySpilled();
+        assertThat(saved).containsExactly("first", "second");
+        assertThat(dataDir.resolve("pending.jsonl")).doesNotExist();
+    }
+
+    private void offer(String text) {
+        assertThat(queue.offer(session, Sender.USER, text, Bot.PHOTO_BOT, MessageType.TELEGRAM, LocalDateTime.now()))
+                .isTrue();
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(queue, "flushSafely");
+    }
+}